@@ -0,0 +1,133 @@
+package com.mydb.benchmark;
+
+import com.mydb.app.verticle.LSMVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Load test of one execution mode over HTTP: a write phase, a read phase over the written probes and
+ * a mixed phase with as many readers as writers. Every phase prints its throughput, latency
+ * percentiles and failed requests, so runs of the different modes can be compared. Each mode needs a
+ * JVM of its own with an empty {@code user.home}, which the {@code benchmark} Gradle task sets up.
+ * <p>
+ * Arguments: execution mode, requests per phase (100000), concurrent requests (64), probes (10000).
+ */
+public class ExecutionModeBenchmark {
+
+  private static final int PORT = 18080;
+
+  private final WebClient client;
+  private final int requests;
+  private final int concurrency;
+  private final int probes;
+
+  private ExecutionModeBenchmark(WebClient client, int requests, int concurrency, int probes) {
+    this.client = client;
+    this.requests = requests;
+    this.concurrency = concurrency;
+    this.probes = probes;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final var mode = args.length > 0 ? args[0] : "shared";
+    final var requests = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    final var concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+    final var probes = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+    final var vertx = Vertx.vertx();
+    final var config = new JsonObject()
+        .put("http", new JsonObject().put("port", PORT))
+        .put("execution", new JsonObject().put("mode", mode));
+    vertx.deployVerticle(new LSMVerticle(), new DeploymentOptions().setConfig(config))
+        .toCompletionStage().toCompletableFuture().get(1, TimeUnit.MINUTES);
+
+    final var client = WebClient.create(vertx, new WebClientOptions()
+        .setDefaultPort(PORT)
+        .setMaxPoolSize(concurrency)
+        .setPipelining(false));
+    final var benchmark = new ExecutionModeBenchmark(client, requests, concurrency, probes);
+    System.out.printf("execution.mode=%s requests=%d concurrency=%d probes=%d%n", mode, requests, concurrency, probes);
+    benchmark.run("write", benchmark::write);
+    benchmark.run("read", benchmark::read);
+    benchmark.run("mixed", i -> i % 2 == 0 ? benchmark.write(i) : benchmark.read(i));
+    vertx.close().toCompletionStage().toCompletableFuture().get(1, TimeUnit.MINUTES);
+  }
+
+  private Future<HttpResponse<Buffer>> write(final int i) {
+    final var probeId = "probe-" + (i % probes);
+    final var payload = new JsonObject()
+        .put("probeId", probeId)
+        .put("eventId", "event-" + i)
+        .put("value", i)
+        .put("time", System.currentTimeMillis());
+    return client.put("/probe/" + probeId + "/event/event-" + i).sendJsonObject(payload);
+  }
+
+  private Future<HttpResponse<Buffer>> read(final int i) {
+    return client.get("/probe/probe-" + (i % probes) + "/latest").send();
+  }
+
+  private void run(final String phase, final IntFunction<Future<HttpResponse<Buffer>>> request) throws Exception {
+    final var latencies = new long[requests];
+    final var next = new AtomicInteger();
+    final var failed = new AtomicInteger();
+    final Promise<Void> done = Promise.promise();
+    final var running = new AtomicInteger(concurrency);
+    final var start = System.nanoTime();
+    for (var worker = 0; worker < concurrency; worker++) {
+      issue(request, next, latencies, failed, running, done);
+    }
+    done.future().toCompletionStage().toCompletableFuture().get(30, TimeUnit.MINUTES);
+    final var elapsedNanos = System.nanoTime() - start;
+
+    Arrays.sort(latencies);
+    System.out.printf("%-6s %10.0f req/s  p50 %7.2f ms  p99 %7.2f ms  p99.9 %7.2f ms  max %7.2f ms  failed %d%n",
+        phase,
+        requests / (elapsedNanos / 1e9),
+        millis(latencies, 0.50),
+        millis(latencies, 0.99),
+        millis(latencies, 0.999),
+        latencies[latencies.length - 1] / 1e6,
+        failed.get());
+  }
+
+  /**
+   * Each worker keeps one request in flight and issues the next once it completed.
+   */
+  private void issue(final IntFunction<Future<HttpResponse<Buffer>>> request, final AtomicInteger next,
+                     final long[] latencies, final AtomicInteger failed, final AtomicInteger running,
+                     final Promise<Void> done) {
+    final var i = next.getAndIncrement();
+    if (i >= requests) {
+      if (running.decrementAndGet() == 0) {
+        done.complete();
+      }
+      return;
+    }
+    final var sent = System.nanoTime();
+    request.apply(i).onComplete(response -> {
+      latencies[i] = System.nanoTime() - sent;
+      // reads of probes not written yet answer 404, which is a valid response
+      if (response.failed() || response.result().statusCode() >= 500) {
+        failed.incrementAndGet();
+      }
+      issue(request, next, latencies, failed, running, done);
+    });
+  }
+
+  private static double millis(final long[] sorted, final double percentile) {
+    return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))] / 1e6;
+  }
+}
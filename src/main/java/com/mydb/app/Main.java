@@ -2,13 +2,19 @@ package com.mydb.app;
 
 import com.mydb.app.verticle.LSMVerticle;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.VertxPrometheusOptions;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class Main {
 
   public static void main(final String[] args) {
-    Vertx vertex = Vertx.vertx();
+    Vertx vertex = Vertx.vertx(new VertxOptions().setMetricsOptions(
+        new MicrometerMetricsOptions()
+            .setPrometheusOptions(new VertxPrometheusOptions().setEnabled(true))
+            .setEnabled(true)));
 
     var deploymentFuture = vertex.deployVerticle(new LSMVerticle());
     deploymentFuture.onFailure(it -> {
@@ -1,31 +1,74 @@
 package com.mydb.app.verticle;
 
+import com.mydb.db.ArchiveConfig;
+import com.mydb.db.BinaryProtocolConfig;
+import com.mydb.db.ChangeFeedConfig;
+import com.mydb.db.ClusterConfig;
+import com.mydb.db.CompactionConfig;
+import com.mydb.db.CompactionScheduler;
+import com.mydb.db.DeduplicationConfig;
+import com.mydb.db.DurabilityConfig;
+import com.mydb.db.ExecutionConfig;
 import com.mydb.db.HttpHandler;
-import com.mydb.db.SchedulerConfig;
+import com.mydb.db.MemTableConfig;
+import com.mydb.db.NegativeCacheConfig;
+import com.mydb.db.ReplicationConfig;
+import com.mydb.db.RetentionConfig;
+import com.mydb.db.SnapshotConfig;
+import com.mydb.db.SnapshotHandler;
 import com.mydb.db.StateLoader;
+import com.mydb.db.StorageExecutors;
+import com.mydb.db.archive.LocalArchiveStore;
+import com.mydb.db.cluster.ClusterRouter;
+import com.mydb.db.cluster.HashRing;
+import com.mydb.db.cluster.PartitionHandoff;
 import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.entity.merge.CompactionThrottle;
 import com.mydb.db.entity.merge.SegmentGenerator;
+import com.mydb.db.feed.ChangeFeed;
+import com.mydb.db.protocol.BinaryProtocolServer;
+import com.mydb.db.replication.ReplicationFollower;
+import com.mydb.db.replication.ReplicationLeader;
+import com.mydb.db.replication.Replicator;
+import com.mydb.db.services.ArchiveService;
+import com.mydb.db.services.DeduplicationService;
 import com.mydb.db.services.FileIOService;
 import com.mydb.db.services.LSMService;
+import com.mydb.db.services.MemTableTuner;
 import com.mydb.db.services.MergeService;
+import com.mydb.db.services.NegativeLookupCache;
+import com.mydb.db.services.ReadViewService;
 import com.mydb.db.services.SegmentService;
+import com.mydb.db.services.SnapshotService;
+import com.mydb.db.services.WALService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.micrometer.PrometheusScrapingHandler;
+import io.vertx.micrometer.backends.BackendRegistries;
 import lombok.extern.slf4j.Slf4j;
-import org.quartz.SchedulerException;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Optional;
 
 @Slf4j
 public class LSMVerticle extends AbstractVerticle {
 
+  private static final long MEMTABLE_TUNING_INTERVAL_MS = 5000;
+
   @Override
   public void start(final Promise<Void> promise) {
     ConfigRetriever.create(vertx).getConfig()
@@ -35,56 +78,237 @@ public class LSMVerticle extends AbstractVerticle {
   }
 
   private Future<io.vertx.core.http.HttpServer> boot(final JsonObject config) {
-    final var fileIOService = new FileIOService();
+    restoreSnapshot(SnapshotConfig.from(config));
+    final var durabilityConfig = DurabilityConfig.from(config);
+    final var fileIOService = new FileIOService(durabilityConfig);
     final var stateLoader = new StateLoader(fileIOService);
     final var segmentConfig = stateLoader.getSegmentConfig();
-    final var indices = stateLoader.getIndices();
-    final var memTableData = stateLoader.getMemTableDataFromWAL();
-    final var mergeService = new MergeService(fileIOService);
+    final var archiveConfig = ArchiveConfig.from(config);
+    // archived segments stay readable when archiving is turned off again
+    final var archiveStore = new LocalArchiveStore(new File(archiveConfig.getDirectory()), fileIOService);
+    final var archiveService = new ArchiveService(archiveStore, archiveConfig.getBlockCacheBytes());
     final var segmentService = new SegmentService(segmentConfig, fileIOService);
-    final var segmentGenerator = new SegmentGenerator(fileIOService, segmentService, 50000, 400000);
-    final var memTableWrapper = new MemTableWrapper(
-        memTableData, indices, fileIOService, segmentGenerator);
-    final var lsmService = new LSMService(memTableWrapper, indices, fileIOService, segmentService, mergeService);
-    final var httpHandler = new HttpHandler(lsmService, vertx);
-    setupScheduledMerging(config, lsmService);
+    final var readViews = new ReadViewService(
+        fileIOService, segmentService, archiveService, stateLoader.getIndices());
+    final var compactionConfig = CompactionConfig.from(config);
+    final var compactionThrottle = new CompactionThrottle(compactionConfig.getBytesPerSecond());
+    final var mergeService = new MergeService(
+        fileIOService, segmentService, compactionThrottle, compactionConfig.getParallelism());
+    final var executors = StorageExecutors.create(ExecutionConfig.from(config), vertx);
+    final var walService = new WALService(
+        durabilityConfig, executors.getWalExecutor(), segmentConfig.getLastFlushedWal());
+    final var memTableConfig = MemTableConfig.from(config);
+    final var segmentGenerator = new SegmentGenerator(
+        fileIOService, segmentService, walService, readViews, compactionThrottle, executors.getFlushExecutor(),
+        memTableConfig.getSoftLimit(), memTableConfig.getHardLimit(), memTableConfig.getSegmentRecords());
+    final var memTableWrapper = new MemTableWrapper(walService, segmentGenerator, memTableConfig);
+    if (memTableConfig.isAutoTune()) {
+      final var tuner = new MemTableTuner(memTableConfig, memTableWrapper, segmentGenerator);
+      vertx.setPeriodic(MEMTABLE_TUNING_INTERVAL_MS, id -> tuner.tune());
+    }
+    stateLoader.replayWAL(memTableWrapper, segmentConfig.getLastFlushedWal());
+    final var meterRegistry = getMeterRegistry();
+    final var deduplicationService = new DeduplicationService(DeduplicationConfig.from(config), meterRegistry);
+    final var retentionConfig = RetentionConfig.from(config);
+    final var lsmService = new LSMService(
+        memTableWrapper, readViews, fileIOService, segmentService, mergeService, deduplicationService,
+        retentionConfig, archiveConfig, archiveService, new NegativeLookupCache(NegativeCacheConfig.from(config)),
+        meterRegistry);
+    final var httpHandler = new HttpHandler(lsmService, executors);
+    final var snapshotHandler = new SnapshotHandler(
+        new SnapshotService(fileIOService, segmentService, walService, readViews, segmentGenerator), executors);
+    final var replicationConfig = ReplicationConfig.from(config);
+    final var replicator = setupReplication(
+        replicationConfig, walService, memTableWrapper, lsmService, fileIOService, executors);
+    setupCompaction(compactionConfig, retentionConfig, archiveConfig, compactionThrottle, lsmService, segmentService,
+        readViews);
+    final var clusterConfig = ClusterConfig.from(config);
+    final var cluster = setupCluster(clusterConfig, lsmService, fileIOService, executors);
+    setupBinaryProtocol(BinaryProtocolConfig.from(config), replicationConfig, lsmService, executors,
+        cluster.map(PartitionHandoff::getRouter));
+    final var changeFeed = setupChangeFeed(ChangeFeedConfig.from(config), memTableWrapper, walService);
     Integer port = Optional.ofNullable(config.getJsonObject("http"))
         .map(it -> it.getInteger("port"))
         .orElse(8080);
 
     return vertx.createHttpServer()
-        .requestHandler(defineRoutes(vertx, httpHandler))
+        .requestHandler(
+            defineRoutes(vertx, httpHandler, snapshotHandler, replicationConfig, replicator, changeFeed, cluster))
         .listen(port)
         .onSuccess(server -> {
           log.info("Started mydb http server on port - {}", port);
+          if (clusterConfig.isJoin()) {
+            cluster.ifPresent(PartitionHandoff::join);
+          }
         })
         .onFailure(e -> {
           log.error("Fatal error! Failed to start server!");
         });
   }
 
-  private void setupScheduledMerging(final JsonObject config, final LSMService lsmService) {
+  private void restoreSnapshot(final SnapshotConfig snapshotConfig) {
+    if (snapshotConfig.getRestoreFrom() == null) {
+      return;
+    }
     try {
-      new SchedulerConfig().scheduleMergeSegments(config, lsmService);
-    } catch (SchedulerException schedulerException) {
-      log.error("error occurred while setting up scheduling", schedulerException);
+      SnapshotService.restore(snapshotConfig.getRestoreFrom());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void setupCompaction(
+      final CompactionConfig compactionConfig,
+      final RetentionConfig retentionConfig,
+      final ArchiveConfig archiveConfig,
+      final CompactionThrottle compactionThrottle,
+      final LSMService lsmService,
+      final SegmentService segmentService,
+      final ReadViewService readViews
+  ) {
+    final var compactionScheduler = new CompactionScheduler(compactionConfig, lsmService, segmentService, readViews);
+    compactionThrottle.addFlushListener(compactionScheduler::requestCompaction);
+    if (retentionConfig.isEnabled()) {
+      // segments expire without any flush happening
+      vertx.setPeriodic(retentionConfig.getCheckIntervalSeconds() * 1000,
+          id -> compactionScheduler.requestCompaction());
+    }
+    if (archiveConfig.isEnabled()) {
+      // segments get cold without any flush happening
+      vertx.setPeriodic(archiveConfig.getCheckIntervalSeconds() * 1000,
+          id -> compactionScheduler.requestCompaction());
+    }
+    compactionScheduler.requestCompaction();
+  }
+
+  private void setupBinaryProtocol(
+      final BinaryProtocolConfig binaryConfig,
+      final ReplicationConfig replicationConfig,
+      final LSMService lsmService,
+      final StorageExecutors executors,
+      final Optional<ClusterRouter> clusterRouter
+  ) {
+    if (binaryConfig.isEnabled()) {
+      new BinaryProtocolServer(vertx, lsmService, executors, binaryConfig.getPort(), binaryConfig.getMaxInFlight(),
+          replicationConfig.getRole() != ReplicationConfig.Role.FOLLOWER, clusterRouter.orElse(null)).start();
     }
   }
 
-  public Router defineRoutes(final Vertx vertx, final HttpHandler handler) {
+  private Optional<ChangeFeed> setupChangeFeed(
+      final ChangeFeedConfig changeFeedConfig,
+      final MemTableWrapper memTableWrapper,
+      final WALService walService
+  ) {
+    if (!changeFeedConfig.isEnabled()) {
+      return Optional.empty();
+    }
+    final var changeFeed = new ChangeFeed(vertx, memTableWrapper, walService.getEpoch(),
+        changeFeedConfig.getBacklogRecords(), changeFeedConfig.getSubscriberBufferEvents());
+    changeFeed.start();
+    return Optional.of(changeFeed);
+  }
+
+  private Optional<PartitionHandoff> setupCluster(
+      final ClusterConfig clusterConfig,
+      final LSMService lsmService,
+      final FileIOService fileIOService,
+      final StorageExecutors executors
+  ) {
+    if (!clusterConfig.isEnabled()) {
+      return Optional.empty();
+    }
+    // a ring adopted from a joining node supersedes the configured nodes, unless this node joins
+    final var ring = (clusterConfig.isJoin() ? Optional.<HashRing>empty() : PartitionHandoff.loadRing())
+        .orElseGet(() -> new HashRing(clusterConfig.getNodes(), clusterConfig.getVirtualNodes()));
+    if (!ring.contains(clusterConfig.getNodeId())) {
+      throw new IllegalStateException("cluster.nodeId must be one of cluster.nodes");
+    }
+    final var webClient = WebClient.create(vertx);
+    final var clusterRouter = new ClusterRouter(webClient, clusterConfig.getNodeId(), ring);
+    log.info("Cluster node {} of {}", clusterConfig.getNodeId(), ring.getNodes().size());
+    return Optional.of(new PartitionHandoff(vertx, webClient, clusterRouter, lsmService, fileIOService, executors));
+  }
+
+  private MeterRegistry getMeterRegistry() {
+    // null unless Vert.x was started with micrometer metrics, as Main does
+    return Optional.ofNullable(BackendRegistries.getDefaultNow())
+        .orElseGet(SimpleMeterRegistry::new);
+  }
+
+  private Optional<Replicator> setupReplication(
+      final ReplicationConfig replicationConfig,
+      final WALService walService,
+      final MemTableWrapper memTableWrapper,
+      final LSMService lsmService,
+      final FileIOService fileIOService,
+      final StorageExecutors executors
+  ) {
+    final Optional<Replicator> replicator = switch (replicationConfig.getRole()) {
+      case LEADER -> Optional.of(new ReplicationLeader(vertx, walService, memTableWrapper, lsmService, executors,
+          replicationConfig.getPort(), replicationConfig.getBacklogRecords()));
+      case FOLLOWER -> Optional.of(new ReplicationFollower(vertx, lsmService, fileIOService, executors,
+          replicationConfig.getLeaderHost(), replicationConfig.getLeaderPort()));
+      case STANDALONE -> Optional.empty();
+    };
+    replicator.ifPresent(Replicator::start);
+    return replicator;
+  }
+
+  public Router defineRoutes(
+      final Vertx vertx,
+      final HttpHandler handler,
+      final SnapshotHandler snapshotHandler,
+      final ReplicationConfig replicationConfig,
+      final Optional<Replicator> replicator,
+      final Optional<ChangeFeed> changeFeed,
+      final Optional<PartitionHandoff> cluster
+  ) {
     Router router = Router.router(vertx);
     router.route().handler(BodyHandler.create());
 
-    addRoutes(router, handler);
+    addRoutes(router, handler, replicationConfig, cluster.map(PartitionHandoff::getRouter));
+    cluster.ifPresent(c -> {
+      router.route(HttpMethod.POST, PartitionHandoff.HANDOFF_PATH).handler(c::handleHandoff);
+      router.route(HttpMethod.GET, "/cluster/ring")
+          .handler(context -> context.response()
+              .putHeader("content-type", "application/json")
+              .end(c.getRouter().getRing().toJson().encode()));
+    });
+    router.route(HttpMethod.GET, "/metrics").handler(PrometheusScrapingHandler.create());
+    router.route(HttpMethod.POST, "/admin/snapshots").handler(snapshotHandler::handleCreate);
+    router.route(HttpMethod.GET, "/admin/snapshots").handler(snapshotHandler::handleList);
+    changeFeed.ifPresent(feed -> router.route(HttpMethod.GET, "/changes").handler(feed::subscribe));
+    replicator.ifPresent(r -> router.route(HttpMethod.GET, "/replication/status")
+        .handler(context -> context.response()
+            .putHeader("content-type", "application/json")
+            .end(r.status().encode())));
 
     return router;
   }
 
-  private void addRoutes(final Router router, final HttpHandler handler) {
-    router.route(HttpMethod.PUT, "/probe/:probeId/event/:eventId")
-        .handler(handler::handleUpdate);
+  private void addRoutes(
+      final Router router,
+      final HttpHandler handler,
+      final ReplicationConfig replicationConfig,
+      final Optional<ClusterRouter> clusterRouter
+  ) {
+    // in cluster mode requests for probes owned by another node are proxied to it
+    final Handler<RoutingContext> owner = clusterRouter
+        .<Handler<RoutingContext>>map(r -> r::route)
+        .orElse(RoutingContext::next);
+
+    // followers only take writes from their leader
+    if (replicationConfig.getRole() != ReplicationConfig.Role.FOLLOWER) {
+      router.route(HttpMethod.PUT, "/probe/:probeId/event/:eventId")
+          .handler(owner)
+          .handler(handler::handleUpdate);
+    }
 
     router.route(HttpMethod.GET, "/probe/:probeId/latest")
+        .handler(owner)
         .handler(handler::handleRead);
+    router.route(HttpMethod.GET, "/probe/:probeId/versions")
+        .handler(owner)
+        .handler(handler::handleVersions);
   }
 }
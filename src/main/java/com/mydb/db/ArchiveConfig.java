@@ -0,0 +1,30 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArchiveConfig {
+  private boolean enabled;
+  private String directory;
+  private long ageSeconds;
+  private long checkIntervalSeconds;
+  private long blockCacheBytes;
+
+  public static ArchiveConfig from(final JsonObject config) {
+    var archive = Optional.ofNullable(config.getJsonObject("archive")).orElse(new JsonObject());
+    return new ArchiveConfig(
+        archive.getBoolean("enabled", false),
+        archive.getString("directory", StateLoader.PATH_TO_HOME + "/archive"),
+        Math.max(0, archive.getLong("ageSeconds", 7 * 24 * 3600L)),
+        Math.max(1, archive.getLong("checkIntervalSeconds", 300L)),
+        Math.max(0, archive.getLong("blockCacheBytes", 64L * 1024 * 1024))
+    );
+  }
+}
@@ -0,0 +1,27 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BinaryProtocolConfig {
+
+  private boolean enabled;
+  private int port;
+  private int maxInFlight;
+
+  public static BinaryProtocolConfig from(final JsonObject config) {
+    var binary = Optional.ofNullable(config.getJsonObject("binary")).orElse(new JsonObject());
+    return new BinaryProtocolConfig(
+        binary.getBoolean("enabled", false),
+        binary.getInteger("port", 7171),
+        Math.max(1, binary.getInteger("maxInFlight", 1024))
+    );
+  }
+}
@@ -0,0 +1,27 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChangeFeedConfig {
+
+  private boolean enabled;
+  private int backlogRecords;
+  private int subscriberBufferEvents;
+
+  public static ChangeFeedConfig from(final JsonObject config) {
+    var changes = Optional.ofNullable(config.getJsonObject("changes")).orElse(new JsonObject());
+    return new ChangeFeedConfig(
+        changes.getBoolean("enabled", false),
+        changes.getInteger("backlogRecords", 10000),
+        Math.max(1, changes.getInteger("subscriberBufferEvents", 1000))
+    );
+  }
+}
@@ -0,0 +1,36 @@
+package com.mydb.db;
+
+import com.mydb.db.cluster.ClusterNode;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ClusterConfig {
+
+  private boolean enabled;
+  private String nodeId;
+  private List<ClusterNode> nodes;
+  private int virtualNodes;
+  private boolean join;
+
+  public static ClusterConfig from(final JsonObject config) {
+    var cluster = Optional.ofNullable(config.getJsonObject("cluster")).orElse(new JsonObject());
+    return new ClusterConfig(
+        cluster.getBoolean("enabled", false),
+        cluster.getString("nodeId"),
+        cluster.getJsonArray("nodes", new JsonArray()).stream()
+            .map(node -> ClusterNode.from((JsonObject) node))
+            .toList(),
+        cluster.getInteger("virtualNodes", 128),
+        cluster.getBoolean("join", false)
+    );
+  }
+}
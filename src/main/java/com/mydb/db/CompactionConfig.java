@@ -0,0 +1,28 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CompactionConfig {
+  private int minSegments;
+  private long maxSegmentBytes;
+  private long bytesPerSecond;
+  private int parallelism;
+
+  public static CompactionConfig from(final JsonObject config) {
+    var compaction = Optional.ofNullable(config.getJsonObject("compaction")).orElse(new JsonObject());
+    return new CompactionConfig(
+        compaction.getInteger("minSegments", 10),
+        compaction.getLong("maxSegmentBytes", 256L * 1024 * 1024),
+        compaction.getLong("bytesPerSecond", 32L * 1024 * 1024),
+        compaction.getInteger("parallelism", Runtime.getRuntime().availableProcessors())
+    );
+  }
+}
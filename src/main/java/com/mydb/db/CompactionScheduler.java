@@ -0,0 +1,96 @@
+package com.mydb.db;
+
+import com.mydb.db.entity.SegmentIndex;
+import com.mydb.db.services.LSMService;
+import com.mydb.db.services.ReadViewService;
+import com.mydb.db.services.SegmentService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs merges on a dedicated single thread whenever the number of segments or the size of data
+ * flushed since the last merge crosses the configured thresholds. Checked after every flush, on that
+ * thread as well since sizing segments reads the file system; at most one check or merge runs or
+ * waits at a time. Fully expired segments are dropped and cold segments archived on the same thread
+ * before merging.
+ */
+@Slf4j
+public class CompactionScheduler {
+
+  private final CompactionConfig config;
+  private final LSMService lsmService;
+  private final SegmentService segmentService;
+  private final ReadViewService readViews;
+  private final AtomicBoolean pending = new AtomicBoolean(false);
+  // outputs of the last merge, which are not new data; after a restart they count once more
+  private volatile Set<SegmentIndex> merged = Set.of();
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1),
+      r -> {
+        var thread = new Thread(r, "compaction");
+        thread.setDaemon(true);
+        return thread;
+      },
+      new ThreadPoolExecutor.DiscardPolicy());
+
+  public CompactionScheduler(
+      CompactionConfig config, LSMService lsmService,
+      SegmentService segmentService, ReadViewService readViews
+  ) {
+    this.config = config;
+    this.lsmService = lsmService;
+    this.segmentService = segmentService;
+    this.readViews = readViews;
+  }
+
+  /**
+   * Called after every flush and from timers on the event loop, so it only hands the check off.
+   */
+  public void requestCompaction() {
+    if (pending.compareAndSet(false, true)) {
+      executor.execute(this::compact);
+    }
+  }
+
+  private void compact() {
+    try {
+      if (!thresholdReached() && !lsmService.hasExpiredSegments() && !lsmService.hasColdSegments()) {
+        return;
+      }
+      lsmService.dropExpiredSegments();
+      lsmService.archiveColdSegments();
+      if (thresholdReached()) {
+        final Set<SegmentIndex> outputs = Collections.newSetFromMap(new IdentityHashMap<>());
+        outputs.addAll(lsmService.merge());
+        merged = outputs;
+      }
+    } catch (Exception ex) {
+      log.error("Compaction failed", ex);
+    } finally {
+      pending.set(false);
+    }
+  }
+
+  private boolean thresholdReached() {
+    // archived segments are never merged
+    final var merged = this.merged;
+    var flushed = readViews.getSegments().stream()
+        .filter(i -> !i.isArchived() && !merged.contains(i))
+        .toList();
+    if (flushed.size() >= config.getMinSegments()) {
+      return true;
+    }
+    var bytes = flushed.stream()
+        .mapToLong(i -> new File(segmentService.getPathForSegment(i.getSegment().getSegmentName())).length())
+        .sum();
+    return bytes >= config.getMaxSegmentBytes();
+  }
+}
@@ -0,0 +1,26 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeduplicationConfig {
+  private boolean enabled;
+  private long windowSeconds;
+  private long maxEntries;
+
+  public static DeduplicationConfig from(final JsonObject config) {
+    var dedup = Optional.ofNullable(config.getJsonObject("dedup")).orElse(new JsonObject());
+    return new DeduplicationConfig(
+        dedup.getBoolean("enabled", true),
+        dedup.getLong("windowSeconds", 600L),
+        dedup.getLong("maxEntries", 1_000_000L)
+    );
+  }
+}
@@ -0,0 +1,28 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DurabilityConfig {
+  private DurabilityPolicy policy;
+  private long groupCommitIntervalMs;
+
+  public static DurabilityConfig from(final JsonObject config) {
+    var durability = Optional.ofNullable(config.getJsonObject("durability")).orElse(new JsonObject());
+    return new DurabilityConfig(
+        DurabilityPolicy.valueOf(durability.getString("policy", DurabilityPolicy.NEVER.name()).toUpperCase()),
+        durability.getLong("groupCommitIntervalMs", 10L)
+    );
+  }
+
+  public boolean syncFiles() {
+    return policy != DurabilityPolicy.NEVER;
+  }
+}
@@ -0,0 +1,14 @@
+package com.mydb.db;
+
+public enum DurabilityPolicy {
+  /** fsync the WAL before acknowledging every write. */
+  ALWAYS,
+  /**
+   * Acknowledge writes after the next periodic fsync that covers them. A write is applied as soon as
+   * it is in the WAL file, so until that fsync it is already readable, streamed to followers and the
+   * change feed, and a crash can still lose it after they have seen it.
+   */
+  GROUP_COMMIT,
+  /** Never fsync; durability is left to the OS page cache flush. */
+  NEVER
+}
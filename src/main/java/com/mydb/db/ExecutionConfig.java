@@ -0,0 +1,41 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ExecutionConfig {
+
+  public enum Mode {
+    /** Vert.x worker pool for requests, ForkJoin common pool for WAL writes and flushes. */
+    SHARED,
+    /** A bounded pool per kind of storage work. */
+    DEDICATED,
+    /** A virtual thread per task, needs a Java 21 runtime; falls back to DEDICATED otherwise. */
+    VIRTUAL
+  }
+
+  private Mode mode;
+  private int readThreads;
+  private int walThreads;
+  private int flushThreads;
+  private int queueSize;
+
+  public static ExecutionConfig from(final JsonObject config) {
+    var execution = Optional.ofNullable(config.getJsonObject("execution")).orElse(new JsonObject());
+    var cores = Runtime.getRuntime().availableProcessors();
+    return new ExecutionConfig(
+        Mode.valueOf(execution.getString("mode", Mode.SHARED.name()).toUpperCase()),
+        execution.getInteger("readThreads", 2 * cores),
+        execution.getInteger("walThreads", cores),
+        execution.getInteger("flushThreads", cores),
+        execution.getInteger("queueSize", 10000)
+    );
+  }
+}
@@ -1,57 +1,140 @@
 package com.mydb.db;
 
+import com.mydb.db.entity.ReadResult;
+import com.mydb.db.exception.HardLimitBreachedException;
 import com.mydb.db.services.LSMService;
-import io.vertx.core.Vertx;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.ext.web.RoutingContext;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 
 @Slf4j
 public class HttpHandler {
 
+  private static final long SEND_FILE_THRESHOLD = 16 * 1024;
+
   private final LSMService lsmService;
-  private final Vertx vertx;
+  private final StorageExecutors executors;
 
-  public HttpHandler(LSMService lsmService, Vertx vertx) {
+  public HttpHandler(LSMService lsmService, StorageExecutors executors) {
     this.lsmService = lsmService;
-    this.vertx = vertx;
+    this.executors = executors;
   }
 
   public void handleUpdate(final RoutingContext context) {
     final var probeId = context.pathParam("probeId");
+    final var eventId = context.pathParam("eventId");
     final var payload = context.getBody();
-    vertx.executeBlocking(
-        fut -> fut.complete(lsmService.insert(probeId, payload)),
-        false,
-        res -> {
-          if (res.succeeded()) {
-            context.response().setStatusCode(OK.code()).end();
+    // insert only queues the WAL append, so writes are dispatched from the event loop and never wait
+    // behind reads for, or get rejected by, the read executor
+    final CompletableFuture<Boolean> inserted;
+    try {
+      inserted = lsmService.insert(probeId, eventId, payload);
+    } catch (HardLimitBreachedException e) {
+      context.fail(e);
+      return;
+    }
+    Future.fromCompletionStage(inserted, context.vertx().getOrCreateContext())
+        .onSuccess(v -> context.response().setStatusCode(OK.code()).end())
+        .onFailure(e -> {
+          // the WAL executor is full, the client should back off and retry
+          if (e instanceof RejectedExecutionException || e.getCause() instanceof RejectedExecutionException) {
+            context.response().setStatusCode(SERVICE_UNAVAILABLE.code()).end();
           } else {
+            context.fail(e);
+          }
+        });
+  }
+
+  public void handleRead(final RoutingContext context) {
+    final var probeId = context.pathParam("probeId");
+    executors.executeBlocking(
+        fut -> {
+          try {
+            fut.complete(resolve(lsmService.getLatest(probeId)));
+          } catch (IOException e) {
+            fut.fail(e);
+          }
+        },
+        res -> {
+          if (res.failed()) {
+            log.error("Unable to read probe {}", probeId, res.cause());
             context.fail(res.cause());
+          } else if (((ReadResult) res.result()).isMiss()) {
+            context.response().setStatusCode(NOT_FOUND.code()).end();
+          } else {
+            respond(context, (ReadResult) res.result());
           }
         }
     );
   }
 
-  public void handleRead(final RoutingContext context) {
+  /**
+   * Answers a JSON array of the probe's readable versions, oldest first.
+   */
+  public void handleVersions(final RoutingContext context) {
     final var probeId = context.pathParam("probeId");
-    vertx.executeBlocking(
-        fut -> fut.complete(lsmService.getData(probeId)),
-        false,
+    executors.<List<Buffer>>executeBlocking(
+        fut -> {
+          try {
+            fut.complete(lsmService.getVersions(probeId));
+          } catch (IOException e) {
+            fut.fail(e);
+          }
+        },
         res -> {
-          if (res.succeeded()) {
-            final var data = Optional.ofNullable((String) res.result()).orElse("{}");
-            context.response().putHeader("content-type", "application/json").end(data);
-          } else {
-            log.error(res.cause().toString());
+          if (res.failed()) {
+            log.error("Unable to read versions of probe {}", probeId, res.cause());
+            context.fail(res.cause());
+            return;
+          }
+          final var versions = res.result();
+          if (versions.isEmpty()) {
             context.response().setStatusCode(NOT_FOUND.code()).end();
+            return;
           }
+          final var body = Buffer.buffer().appendString("[");
+          for (var i = 0; i < versions.size(); i++) {
+            body.appendString(i == 0 ? "" : ",").appendBuffer(versions.get(i));
+          }
+          context.response().putHeader("content-type", "application/json").end(body.appendString("]"));
         }
     );
   }
 
+  /**
+   * Small segment values are read on the worker thread; larger ones are left as a file region so the
+   * event loop can hand them to the socket with sendfile.
+   */
+  private ReadResult resolve(final ReadResult result) throws IOException {
+    if (result.isMiss() || result.isInMemory() || result.getSize() >= SEND_FILE_THRESHOLD) {
+      return result;
+    }
+    try {
+      return ReadResult.inMemory(lsmService.readBytes(result));
+    } finally {
+      result.release();
+    }
+  }
+
+  private void respond(final RoutingContext context, final ReadResult result) {
+    final var response = context.response().putHeader("content-type", "application/json");
+    if (result.isInMemory()) {
+      response.end(result.getData());
+      return;
+    }
+    response.sendFile(result.getPath(), result.getOffset(), result.getSize())
+        .onComplete(ar -> result.release())
+        .onFailure(context::fail);
+  }
+
 }
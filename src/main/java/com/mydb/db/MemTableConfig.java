@@ -0,0 +1,51 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MemTableConfig {
+
+  public enum Mode {
+    /** Every write is kept and flushed, in arrival order. */
+    APPEND,
+    /** Writes to the same probe overwrite each other, only the last retainedVersions are kept. */
+    LATEST
+  }
+
+  private Mode mode;
+  // versions of a probe kept in latest mode until it is flushed, only the last one is flushed
+  private int retainedVersions;
+  // queued writes that trigger a flush
+  private int softLimit;
+  // queued writes at which new writes are rejected until a flush catches up
+  private int hardLimit;
+  // writes per flushed segment
+  private int segmentRecords;
+  private boolean autoTune;
+  private long targetFlushIntervalMs;
+  private long targetSegmentBytes;
+  private double heapFraction;
+
+  public static MemTableConfig from(final JsonObject config) {
+    var memTable = Optional.ofNullable(config.getJsonObject("memTable")).orElse(new JsonObject());
+    var softLimit = Math.max(1, memTable.getInteger("softLimit", 50000));
+    return new MemTableConfig(
+        Mode.valueOf(memTable.getString("mode", Mode.APPEND.name()).toUpperCase()),
+        Math.max(1, memTable.getInteger("retainedVersions", 1)),
+        softLimit,
+        Math.max(softLimit, memTable.getInteger("hardLimit", 400000)),
+        Math.max(1, memTable.getInteger("segmentRecords", softLimit)),
+        memTable.getBoolean("autoTune", false),
+        memTable.getLong("targetFlushIntervalMs", 10000L),
+        memTable.getLong("targetSegmentBytes", 64L * 1024 * 1024),
+        memTable.getDouble("heapFraction", 0.25)
+    );
+  }
+}
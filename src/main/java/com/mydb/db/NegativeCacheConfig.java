@@ -0,0 +1,24 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class NegativeCacheConfig {
+  private boolean enabled;
+  private long maxEntries;
+
+  public static NegativeCacheConfig from(final JsonObject config) {
+    var negativeCache = Optional.ofNullable(config.getJsonObject("negativeCache")).orElse(new JsonObject());
+    return new NegativeCacheConfig(
+        negativeCache.getBoolean("enabled", true),
+        negativeCache.getLong("maxEntries", 100_000L)
+    );
+  }
+}
@@ -0,0 +1,37 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReplicationConfig {
+
+  public enum Role {
+    STANDALONE,
+    LEADER,
+    FOLLOWER
+  }
+
+  private Role role;
+  private int port;
+  private String leaderHost;
+  private int leaderPort;
+  private int backlogRecords;
+
+  public static ReplicationConfig from(final JsonObject config) {
+    var replication = Optional.ofNullable(config.getJsonObject("replication")).orElse(new JsonObject());
+    return new ReplicationConfig(
+        Role.valueOf(replication.getString("role", Role.STANDALONE.name()).toUpperCase()),
+        replication.getInteger("port", 7070),
+        replication.getString("leaderHost", "127.0.0.1"),
+        replication.getInteger("leaderPort", 7070),
+        replication.getInteger("backlogRecords", 100000)
+    );
+  }
+}
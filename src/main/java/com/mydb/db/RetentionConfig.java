@@ -0,0 +1,30 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RetentionConfig {
+
+  // 0 keeps data forever
+  private long ttlSeconds;
+  private long checkIntervalSeconds;
+
+  public static RetentionConfig from(final JsonObject config) {
+    var retention = Optional.ofNullable(config.getJsonObject("retention")).orElse(new JsonObject());
+    return new RetentionConfig(
+        Math.max(0, retention.getLong("ttlSeconds", 0L)),
+        Math.max(1, retention.getLong("checkIntervalSeconds", 60L))
+    );
+  }
+
+  public boolean isEnabled() {
+    return ttlSeconds > 0;
+  }
+}
@@ -10,4 +10,10 @@ import lombok.NoArgsConstructor;
 public class SegmentConfig {
   private String basePath;
   private long count;
+  // newest WAL file whose records are all flushed into segments
+  private long lastFlushedWal = -1;
+
+  public SegmentConfig(final String basePath, final long count) {
+    this(basePath, count, -1);
+  }
 }
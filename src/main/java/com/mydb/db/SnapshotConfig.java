@@ -0,0 +1,22 @@
+package com.mydb.db;
+
+import io.vertx.core.json.JsonObject;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Optional;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SnapshotConfig {
+
+  // name of a snapshot to restore at startup, once
+  private String restoreFrom;
+
+  public static SnapshotConfig from(final JsonObject config) {
+    var snapshot = Optional.ofNullable(config.getJsonObject("snapshot")).orElse(new JsonObject());
+    return new SnapshotConfig(snapshot.getString("restoreFrom"));
+  }
+}
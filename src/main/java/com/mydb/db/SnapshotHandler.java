@@ -0,0 +1,51 @@
+package com.mydb.db;
+
+import com.mydb.db.services.SnapshotService;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+
+@Slf4j
+public class SnapshotHandler {
+
+  private final SnapshotService snapshotService;
+  private final StorageExecutors executors;
+
+  public SnapshotHandler(SnapshotService snapshotService, StorageExecutors executors) {
+    this.snapshotService = snapshotService;
+    this.executors = executors;
+  }
+
+  public void handleCreate(final RoutingContext context) {
+    executors.<JsonObject>executeBlocking(
+        fut -> {
+          try {
+            fut.complete(snapshotService.createSnapshot());
+          } catch (IOException | RuntimeException e) {
+            fut.fail(e);
+          }
+        },
+        res -> {
+          if (res.succeeded()) {
+            context.response().setStatusCode(CREATED.code())
+                .putHeader("content-type", "application/json")
+                .end(res.result().encode());
+          } else {
+            log.error("Snapshot failed", res.cause());
+            context.response().setStatusCode(INTERNAL_SERVER_ERROR.code()).end();
+          }
+        }
+    );
+  }
+
+  public void handleList(final RoutingContext context) {
+    context.response()
+        .putHeader("content-type", "application/json")
+        .end(new JsonObject().put("snapshots", snapshotService.listSnapshots()).encode());
+  }
+}
@@ -2,23 +2,21 @@ package com.mydb.db;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.entity.PackedSegmentIndex;
 import com.mydb.db.entity.SegmentIndex;
 import com.mydb.db.services.FileIOService;
+import com.mydb.db.services.SegmentService;
+import com.mydb.db.services.WALService;
 import io.vertx.core.buffer.Buffer;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Deque;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
-import static com.mydb.db.services.FileIOService.DEFAULT_WAL_FILE_PATH;
-import static com.mydb.db.services.FileIOService.DELIMITER;
-import static com.mydb.db.services.FileIOService.STAGED_WAL_FILE_PATH;
+import static com.mydb.db.services.WALService.DELIMITER;
 
 public class StateLoader {
 
@@ -45,32 +43,41 @@ public class StateLoader {
     return new SegmentConfig(DEFAULT_BASE_PATH, -1);
   }
 
+  /**
+   * Loads the newest index backup that can be read.
+   */
   public Deque<SegmentIndex> getIndices() {
-    var segmentConfig = fileIOService.getSegmentConfig(CONFIG_PATH);
-    if (segmentConfig.isPresent()) {
-      var counter = segmentConfig.get().getCount();
-      while (counter >= 0) {
-        var index = fileIOService.getIndices(
-            DEFAULT_BASE_PATH + "/indices/backup-" + counter);
-        if (index.isPresent()) {
-          return index.get();
-        }
-        counter--;
+    for (var backup : SegmentService.listBackups(DEFAULT_BASE_PATH)) {
+      var index = fileIOService.getIndices(backup.getPath());
+      if (index.isPresent()) {
+        return pack(index.get());
       }
     }
     return new ConcurrentLinkedDeque<>();
   }
 
-  public ImmutablePair<Deque<String>, Map<String, Deque<Buffer>>> getMemTableDataFromWAL() {
-    var memTable = new ConcurrentHashMap<String, Deque<Buffer>>();
-    var probeIds = new ConcurrentLinkedDeque<String>();
-    List.of(STAGED_WAL_FILE_PATH, DEFAULT_WAL_FILE_PATH).forEach( walPath -> {
+  private Deque<SegmentIndex> pack(final Deque<SegmentIndex> indices) {
+    var packed = new ConcurrentLinkedDeque<SegmentIndex>();
+    indices.forEach(i -> {
+      // segments written before write times were recorded are stamped with their file's modification time
+      var writeTime = i.getMaxWriteTime() != 0
+          ? i.getMaxWriteTime() : new File(i.getSegment().getSegmentPath()).lastModified();
+      packed.addLast(new SegmentIndex(i.getSegment(),
+          PackedSegmentIndex.of(i.getSegmentIndex(), writeTime), writeTime, i.getArchiveBlocks()));
+    });
+    return packed;
+  }
+
+  /**
+   * Replays only the WAL files written after the last checkpoint, everything older is in segments.
+   */
+  public void replayWAL(final MemTableWrapper memTable, final long lastFlushedWal) {
+    WALService.getWalFilesAfter(lastFlushedWal).forEach(walFile -> {
           try {
-            var walFile = new File(walPath);
             if (walFile.exists()) {
               var wal = readWAL(walFile, null);
               if (wal != null) {
-                writeToMemory(probeIds, memTable, wal);
+                writeToMemory(memTable, wal);
               }
             }
           } catch (RuntimeException ex) {
@@ -78,25 +85,21 @@ public class StateLoader {
           }
         }
     );
-    return new ImmutablePair<>(probeIds, memTable);
   }
 
-  private void writeToMemory(Deque<String> probeIds, Map<String, Deque<Buffer>> memTable, byte[] wal) {
+  private void writeToMemory(MemTableWrapper memTable, byte[] wal) {
+    if (WALService.readRecords(wal, memTable::put)) {
+      return;
+    }
+    // written before records carried their probeId, which is taken from the payload instead
     String finalWal = new String(wal);
     var delimiter = new String(DELIMITER);
     String[] split = finalWal.split(delimiter);
     for (String payload : split) {
       try {
-        var probeId = getProbeId(payload);
-        if (memTable.containsKey(probeId)) {
-          memTable.get(probeId).addLast(Buffer.buffer(payload));
-        } else {
-          var list = new ConcurrentLinkedDeque<Buffer>();
-          list.addLast(Buffer.buffer(payload));
-          memTable.put(probeId, list);
-        }
-        probeIds.addLast(probeId);
-      } catch (JsonProcessingException exception) {
+        memTable.put(getProbeId(payload), Buffer.buffer(payload));
+      } catch (JsonProcessingException | RuntimeException exception) {
+        // skip only this payload, the rest of the file is still replayed
         exception.printStackTrace();
       }
     }
@@ -111,7 +114,7 @@ public class StateLoader {
     return wal;
   }
 
-  private String getProbeId(String payload) throws JsonProcessingException {
+  public static String getProbeId(String payload) throws JsonProcessingException {
     return mapper.readTree(payload).get("probeId").toString().replace("\"", "");
   }
 
@@ -0,0 +1,118 @@
+package com.mydb.db;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking storage work: segment reads behind http requests, WAL writes and memtable
+ * flushes. Which threads run them is chosen by {@link ExecutionConfig.Mode}. Bounded executors reject
+ * work once their queue is full rather than running it on the submitting thread, which may be an
+ * event loop.
+ */
+@Slf4j
+@Getter
+public class StorageExecutors {
+
+  private final Vertx vertx;
+  private final ExecutionConfig.Mode mode;
+  private final Executor readExecutor;
+  private final Executor walExecutor;
+  private final Executor flushExecutor;
+
+  private StorageExecutors(Vertx vertx, ExecutionConfig.Mode mode,
+                           Executor readExecutor, Executor walExecutor, Executor flushExecutor) {
+    this.vertx = vertx;
+    this.mode = mode;
+    this.readExecutor = readExecutor;
+    this.walExecutor = walExecutor;
+    this.flushExecutor = flushExecutor;
+  }
+
+  public static StorageExecutors create(final ExecutionConfig config, final Vertx vertx) {
+    var mode = config.getMode();
+    if (mode == ExecutionConfig.Mode.VIRTUAL) {
+      var virtual = newVirtualThreadExecutor();
+      if (virtual != null) {
+        log.info("Running storage work on virtual threads");
+        return new StorageExecutors(vertx, mode, virtual, virtual, virtual);
+      }
+      log.warn("Virtual threads need a Java 21 runtime, falling back to dedicated executors");
+      mode = ExecutionConfig.Mode.DEDICATED;
+    }
+    if (mode == ExecutionConfig.Mode.DEDICATED) {
+      log.info("Running storage work on dedicated executors");
+      return new StorageExecutors(vertx, mode,
+          newBoundedExecutor("storage-read", config.getReadThreads(), config.getQueueSize(),
+              new ThreadPoolExecutor.AbortPolicy()),
+          newBoundedExecutor("storage-wal", config.getWalThreads(), config.getQueueSize(),
+              new ThreadPoolExecutor.AbortPolicy()),
+          newBoundedExecutor("storage-flush", config.getFlushThreads(), config.getQueueSize(),
+              new ThreadPoolExecutor.AbortPolicy()));
+    }
+    var commonPool = ForkJoinPool.commonPool();
+    return new StorageExecutors(vertx, mode, null, commonPool, commonPool);
+  }
+
+  /**
+   * Same contract as {@link Vertx#executeBlocking(Handler, boolean, Handler)}: the result handler
+   * is called back on the caller's context.
+   */
+  public <T> void executeBlocking(final Handler<Promise<T>> blockingCode, final Handler<AsyncResult<T>> resultHandler) {
+    if (readExecutor == null) {
+      vertx.executeBlocking(blockingCode, false, resultHandler);
+      return;
+    }
+    final var context = vertx.getOrCreateContext();
+    final Promise<T> promise = Promise.promise();
+    promise.future().onComplete(result -> context.runOnContext(v -> resultHandler.handle(result)));
+    try {
+      readExecutor.execute(() -> {
+        try {
+          blockingCode.handle(promise);
+        } catch (Throwable t) {
+          promise.tryFail(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      resultHandler.handle(Future.failedFuture(e));
+    }
+  }
+
+  private static Executor newBoundedExecutor(
+      final String name, final int threads, final int queueSize, final RejectedExecutionHandler whenFull
+  ) {
+    final var counter = new AtomicInteger();
+    return new ThreadPoolExecutor(
+        threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+        r -> {
+          var thread = new Thread(r, name + "-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        whenFull);
+  }
+
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.mydb.db.archive;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cold storage for archived segments. Objects are written once, read by byte range and deleted as a
+ * whole, which a local directory and an object store support alike.
+ */
+public interface ArchiveStore {
+
+  /**
+   * Stores the file's content as the named object, replacing any previous one.
+   */
+  void put(String name, File source) throws IOException;
+
+  byte[] read(String name, long offset, int length) throws IOException;
+
+  void delete(String name) throws IOException;
+}
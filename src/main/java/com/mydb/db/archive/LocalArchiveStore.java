@@ -0,0 +1,50 @@
+package com.mydb.db.archive;
+
+import com.mydb.db.services.FileIOService;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * Archive kept as one file per object in a directory, typically on cheaper and slower storage than
+ * the segments.
+ */
+public class LocalArchiveStore implements ArchiveStore {
+
+  private final File directory;
+  private final FileIOService fileIOService;
+
+  public LocalArchiveStore(final File directory, final FileIOService fileIOService) {
+    this.directory = directory;
+    this.fileIOService = fileIOService;
+  }
+
+  @Override
+  public void put(final String name, final File source) throws IOException {
+    final var target = new File(directory, name);
+    final var temp = fileIOService.getTempFile(target);
+    try (var outputStream = new FileOutputStream(temp)) {
+      Files.copy(source.toPath(), outputStream);
+      fileIOService.sync(outputStream);
+    }
+    fileIOService.commit(temp, target);
+  }
+
+  @Override
+  public byte[] read(final String name, final long offset, final int length) throws IOException {
+    try (var file = new RandomAccessFile(new File(directory, name), "r")) {
+      final var bytes = new byte[length];
+      file.seek(offset);
+      file.readFully(bytes);
+      return bytes;
+    }
+  }
+
+  @Override
+  public void delete(final String name) throws IOException {
+    Files.deleteIfExists(new File(directory, name).toPath());
+  }
+}
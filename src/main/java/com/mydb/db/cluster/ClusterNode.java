@@ -0,0 +1,19 @@
+package com.mydb.db.cluster;
+
+import io.vertx.core.json.JsonObject;
+import lombok.Value;
+
+@Value
+public class ClusterNode {
+  String id;
+  String host;
+  int port;
+
+  public static ClusterNode from(final JsonObject node) {
+    return new ClusterNode(node.getString("id"), node.getString("host", "127.0.0.1"), node.getInteger("port"));
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject().put("id", id).put("host", host).put("port", port);
+  }
+}
@@ -0,0 +1,62 @@
+package com.mydb.db.cluster;
+
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.client.WebClient;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Optional;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_GATEWAY;
+
+/**
+ * Serves probe requests owned by this node and proxies all others to their owner on the hash ring.
+ * Forwarded requests are marked and always served locally, so nodes with diverging rings never
+ * forward in a loop.
+ */
+@Slf4j
+public class ClusterRouter {
+
+  public static final String FORWARDED_HEADER = "X-MyDB-Forwarded";
+
+  private final WebClient webClient;
+  @Getter
+  private final String nodeId;
+  @Getter
+  @Setter
+  private volatile HashRing ring;
+
+  public ClusterRouter(WebClient webClient, String nodeId, HashRing ring) {
+    this.webClient = webClient;
+    this.nodeId = nodeId;
+    this.ring = ring;
+  }
+
+  public void route(final RoutingContext context) {
+    final var owner = ring.ownerOf(context.pathParam("probeId"));
+    if (owner.getId().equals(nodeId) || context.request().getHeader(FORWARDED_HEADER) != null) {
+      context.next();
+      return;
+    }
+    forward(context, owner);
+  }
+
+  private void forward(final RoutingContext context, final ClusterNode owner) {
+    final var request = webClient
+        .request(context.request().method(), owner.getPort(), owner.getHost(), context.request().uri())
+        .putHeader(FORWARDED_HEADER, nodeId);
+    final var body = context.getBody();
+    (body == null ? request.send() : request.sendBuffer(body))
+        .onSuccess(response -> {
+          final var proxied = context.response().setStatusCode(response.statusCode());
+          Optional.ofNullable(response.getHeader("content-type"))
+              .ifPresent(type -> proxied.putHeader("content-type", type));
+          Optional.ofNullable(response.body()).ifPresentOrElse(proxied::end, proxied::end);
+        })
+        .onFailure(e -> {
+          log.warn("Unable to forward request to node {} - {}", owner.getId(), e.getMessage());
+          context.response().setStatusCode(BAD_GATEWAY.code()).end();
+        });
+  }
+}
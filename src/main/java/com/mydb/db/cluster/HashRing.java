@@ -0,0 +1,66 @@
+package com.mydb.db.cluster;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring over the cluster nodes. Every node is placed at a number of virtual points,
+ * a probe belongs to the first point at or after its hash, so adding a node only takes over the
+ * probes between its points and their predecessors.
+ */
+public class HashRing {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  @Getter
+  private final List<ClusterNode> nodes;
+  @Getter
+  private final int virtualNodes;
+  private final NavigableMap<Long, ClusterNode> points = new TreeMap<>();
+
+  public HashRing(final List<ClusterNode> nodes, final int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("A hash ring needs at least one node");
+    }
+    this.nodes = List.copyOf(nodes);
+    this.virtualNodes = virtualNodes;
+    nodes.forEach(node -> {
+      for (var i = 0; i < virtualNodes; i++) {
+        points.put(hash(node.getId() + "#" + i), node);
+      }
+    });
+  }
+
+  public static HashRing from(final JsonObject ring) {
+    return new HashRing(
+        ring.getJsonArray("nodes").stream().map(node -> ClusterNode.from((JsonObject) node)).toList(),
+        ring.getInteger("virtualNodes"));
+  }
+
+  public JsonObject toJson() {
+    return new JsonObject()
+        .put("nodes", new JsonArray(nodes.stream().map(ClusterNode::toJson).toList()))
+        .put("virtualNodes", virtualNodes);
+  }
+
+  public ClusterNode ownerOf(final String probeId) {
+    var point = points.ceilingEntry(hash(probeId));
+    return (point == null ? points.firstEntry() : point).getValue();
+  }
+
+  public boolean contains(final String nodeId) {
+    return nodes.stream().anyMatch(node -> node.getId().equals(nodeId));
+  }
+
+  private static long hash(final String value) {
+    return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+  }
+}
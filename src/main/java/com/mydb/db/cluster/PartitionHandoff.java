@@ -0,0 +1,251 @@
+package com.mydb.db.cluster;
+
+import com.mydb.db.StateLoader;
+import com.mydb.db.StorageExecutors;
+import com.mydb.db.exception.HardLimitBreachedException;
+import com.mydb.db.services.FileIOService;
+import com.mydb.db.services.LSMService;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.codec.BodyCodec;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Optional;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Moves the probes a joining node owns on the new ring from the existing nodes to it. The joining
+ * node sends the new ring to every other node, each adopts it, so further requests for those
+ * probes are forwarded to the new owner, and streams back the latest value of every probe the new
+ * node now owns. Records are a short length and UTF-8 probeId followed by an int length and payload.
+ * An adopted ring is persisted in {@link #RING_FILE} and used instead of the configured nodes after a
+ * restart.
+ */
+@Slf4j
+public class PartitionHandoff {
+
+  public static final String HANDOFF_PATH = "/cluster/handoff";
+  public static final File RING_FILE = new File(StateLoader.PATH_TO_HOME + "/data/ring.json");
+  private static final long HARD_LIMIT_BACKOFF_MS = 100;
+
+  private final Vertx vertx;
+  private final WebClient webClient;
+  @Getter
+  private final ClusterRouter router;
+  private final LSMService lsmService;
+  private final FileIOService fileIOService;
+  private final StorageExecutors executors;
+
+  public PartitionHandoff(Vertx vertx, WebClient webClient, ClusterRouter router,
+                          LSMService lsmService, FileIOService fileIOService, StorageExecutors executors) {
+    this.vertx = vertx;
+    this.webClient = webClient;
+    this.router = router;
+    this.lsmService = lsmService;
+    this.fileIOService = fileIOService;
+    this.executors = executors;
+  }
+
+  /**
+   * The ring this node adopted last, if any.
+   */
+  public static Optional<HashRing> loadRing() {
+    if (!RING_FILE.exists()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(HashRing.from(new JsonObject(Files.readString(RING_FILE.toPath()))));
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalStateException("Unable to read the adopted ring from " + RING_FILE, e);
+    }
+  }
+
+  /**
+   * Pulls this node's partitions from every other node of the ring, one node at a time. The ring
+   * this node joins with is persisted first, as the others adopt it.
+   */
+  public Future<Void> join() {
+    final var ring = router.getRing();
+    Future<Void> done = persistRing(ring);
+    for (var node : router.getRing().getNodes()) {
+      if (!node.getId().equals(router.getNodeId())) {
+        done = done.compose(v -> pullFrom(node));
+      }
+    }
+    return done;
+  }
+
+  private Future<Void> pullFrom(final ClusterNode node) {
+    final var fileSystem = vertx.fileSystem();
+    final var request = new JsonObject()
+        .put("ring", router.getRing().toJson())
+        .put("target", router.getNodeId());
+    return fileSystem.createTempFile("mydb-handoff-", ".bin").compose(path ->
+            fileSystem.open(path, new OpenOptions().setWrite(true))
+                .compose(file -> webClient.post(node.getPort(), node.getHost(), HANDOFF_PATH)
+                    .putHeader(ClusterRouter.FORWARDED_HEADER, router.getNodeId())
+                    .as(BodyCodec.pipe(file))
+                    .sendJsonObject(request))
+                .compose(response -> response.statusCode() == OK.code()
+                    ? this.<Integer>blocking(promise -> promise.complete(importRecords(path)))
+                    : Future.<Integer>failedFuture("Handoff refused with status " + response.statusCode()))
+                .eventually(v -> fileSystem.delete(path)))
+        .onSuccess(count -> log.info("Took over {} probes from node {}", count, node.getId()))
+        .<Void>mapEmpty()
+        .recover(e -> {
+          log.warn("Handoff from node {} failed - {}", node.getId(), e.getMessage());
+          return Future.succeededFuture();
+        });
+  }
+
+  /**
+   * POST /cluster/handoff with the new ring and the id of the joining node.
+   */
+  public void handleHandoff(final RoutingContext context) {
+    final HashRing ring;
+    final String target;
+    try {
+      final var request = context.getBodyAsJson();
+      ring = HashRing.from(request.getJsonObject("ring"));
+      target = request.getString("target");
+    } catch (RuntimeException e) {
+      context.response().setStatusCode(BAD_REQUEST.code()).end("Invalid handoff request");
+      return;
+    }
+    if (!isJoinOf(ring, target)) {
+      log.warn("Refusing handoff to node {}, its ring is not this node's ring plus that node", target);
+      context.response().setStatusCode(BAD_REQUEST.code()).end("Ring must be the current ring plus the joining node");
+      return;
+    }
+    // a joining node retrying its handoff sends the ring adopted the first time
+    final Future<Void> adopted = !router.getRing().contains(target)
+        ? persistRing(ring).onSuccess(v -> router.setRing(ring))
+        : Future.succeededFuture();
+    adopted.compose(v -> vertx.fileSystem().createTempFile("mydb-handoff-", ".bin"))
+        .compose(path -> this.<Integer>blocking(promise -> promise.complete(exportRecords(path, ring, target)))
+            .onSuccess(count -> log.info("Handing {} probes over to node {}", count, target))
+            .compose(count -> context.response().sendFile(path))
+            .eventually(v -> vertx.fileSystem().delete(path)))
+        .onFailure(context::fail);
+  }
+
+  /**
+   * Whether the ring only adds the target node to the current ring, or is the current ring that
+   * already holds it.
+   */
+  private boolean isJoinOf(final HashRing ring, final String target) {
+    final var current = router.getRing();
+    final var added = new HashSet<>(ring.getNodes());
+    current.getNodes().forEach(added::remove);
+    return target != null
+        && ring.contains(target)
+        && ring.getVirtualNodes() == current.getVirtualNodes()
+        && ring.getNodes().containsAll(current.getNodes())
+        && added.size() <= 1
+        && added.stream().allMatch(node -> node.getId().equals(target));
+  }
+
+  /**
+   * Written before the ring is adopted, so a restart never falls back to a ring this node already
+   * handed probes away from.
+   */
+  private Future<Void> persistRing(final HashRing ring) {
+    return blocking(promise -> {
+      try {
+        fileIOService.writeAtomically(RING_FILE, ring.toJson().encode().getBytes(StandardCharsets.UTF_8));
+        promise.complete();
+      } catch (IOException e) {
+        promise.fail(e);
+      }
+    });
+  }
+
+  private int exportRecords(final String path, final HashRing ring, final String target) {
+    final var probeIds = lsmService.getProbeIds(probeId -> ring.ownerOf(probeId).getId().equals(target));
+    var count = 0;
+    try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+      for (var probeId : probeIds) {
+        final var value = lsmService.readLatest(probeId);
+        if (value != null) {
+          final var key = probeId.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(key.length);
+          out.write(key);
+          out.writeInt(value.length());
+          out.write(value.getBytes());
+          count++;
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to export partition for node " + target, e);
+    }
+    return count;
+  }
+
+  private int importRecords(final String path) {
+    var count = 0;
+    try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+      while (true) {
+        final int keyLength;
+        try {
+          keyLength = in.readUnsignedShort();
+        } catch (EOFException e) {
+          break;
+        }
+        final var probeId = new String(in.readNBytes(keyLength), StandardCharsets.UTF_8);
+        final var payload = Buffer.buffer(in.readNBytes(in.readInt()));
+        // written here since the ring changed, newer than the handed over value
+        if (!lsmService.contains(probeId)) {
+          insert(probeId, payload);
+          count++;
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to import handed over partition", e);
+    }
+    return count;
+  }
+
+  private void insert(final String probeId, final Buffer payload) {
+    while (true) {
+      try {
+        lsmService.insert(probeId, payload).join();
+        return;
+      } catch (HardLimitBreachedException exception) {
+        try {
+          Thread.sleep(HARD_LIMIT_BACKOFF_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private <T> Future<T> blocking(final Handler<Promise<T>> blockingCode) {
+    final Promise<T> promise = Promise.promise();
+    executors.executeBlocking(blockingCode, promise);
+    return promise.future();
+  }
+}
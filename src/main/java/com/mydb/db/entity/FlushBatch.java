@@ -0,0 +1,19 @@
+package com.mydb.db.entity;
+
+import io.vertx.core.buffer.Buffer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Values of one range of the memtable that go into a single segment, and how many queued writes of
+ * each probe they cover.
+ */
+@Getter
+@AllArgsConstructor
+public class FlushBatch {
+  private final SortedMap<String, Buffer> values;
+  private final Map<String, Integer> occurrences;
+}
@@ -1,56 +1,98 @@
 package com.mydb.db.entity;
 
+import com.mydb.db.MemTableConfig;
 import com.mydb.db.entity.merge.SegmentGenerator;
-import com.mydb.db.services.FileIOService;
+import com.mydb.db.services.WALService;
 import io.vertx.core.buffer.Buffer;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 @Getter
 @Setter
 @Slf4j
 public class MemTableWrapper {
 
-  private Deque<SegmentIndex> indices;
   private SegmentGenerator generator;
-  private FileIOService fileIOService;
-  private Deque<String> probeIds;
-  private Map<String, Deque<Buffer>> memTable;
+  private WALService walService;
+  private MemTableConfig config;
+  private Deque<String> probeIds = new ConcurrentLinkedDeque<>();
+  private Map<String, Deque<Buffer>> memTable = new ConcurrentHashMap<>();
+  private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+  // ingest statistics for tuning the flush limits
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder writtenBytes = new LongAdder();
+  // entries added to the flush queue: every write in append mode, a probe's first write since its
+  // last flush in latest mode
+  private final LongAdder queued = new LongAdder();
+
+  /**
+   * Called for every write applied through {@link #persist}, in WAL sequence order and while the
+   * WAL is locked, so a listener must only hand the change off.
+   */
+  public interface ChangeListener {
+    void changed(long sequence, String probeId, Buffer payload);
+  }
 
   public MemTableWrapper(
-      ImmutablePair<Deque<String>, Map<String, Deque<Buffer>>> memTableData,
-      Deque<SegmentIndex> indices,
-      FileIOService fileIOService,
-      SegmentGenerator generator
+      WALService walService,
+      SegmentGenerator generator,
+      MemTableConfig config
   ) {
-    this.indices = indices;
-    this.fileIOService = fileIOService;
+    this.walService = walService;
     this.generator = generator;
-    this.probeIds = memTableData.getLeft();
-    this.memTable = memTableData.getRight();
+    this.config = config;
   }
 
   public CompletableFuture<Boolean> persist(final String probeId, final Buffer payload) {
-    return fileIOService.writeAheadLog(payload)
-        .thenApply(b -> put(probeId, payload))
-        .thenApply(b -> generator.update(indices, probeIds, memTable));
+    writes.increment();
+    writtenBytes.add(payload.length());
+    return walService.append(probeId, payload, sequence -> {
+          put(probeId, payload);
+          changeListeners.forEach(listener -> listener.changed(sequence, probeId, payload));
+        })
+        .thenApply(b -> generator.update(probeIds, this));
+  }
+
+  public void addChangeListener(final ChangeListener listener) {
+    changeListeners.add(listener);
   }
 
-  private boolean put(final String probeId, final Buffer payload) {
-    probeIds.addLast(probeId);
-    if (memTable.containsKey(probeId)) {
-      memTable.get(probeId).addLast(payload);
-    } else {
-      var list = new ConcurrentLinkedDeque<Buffer>();
-      list.addLast(payload);
-      memTable.put(probeId, list);
+  /**
+   * Applies a write to memory only, also used to replay the WAL. In {@link MemTableConfig.Mode#LATEST}
+   * mode a probe is queued for flushing once, however often it is written.
+   */
+  public boolean put(final String probeId, final Buffer payload) {
+    memTable.compute(probeId, (key, versions) -> {
+      if (versions == null) {
+        versions = new ConcurrentLinkedDeque<>();
+        if (config.getMode() == MemTableConfig.Mode.LATEST) {
+          probeIds.addLast(probeId);
+          queued.increment();
+        }
+      }
+      versions.addLast(payload);
+      if (config.getMode() == MemTableConfig.Mode.LATEST) {
+        while (versions.size() > config.getRetainedVersions()) {
+          versions.pollFirst();
+        }
+      }
+      return versions;
+    });
+    if (config.getMode() == MemTableConfig.Mode.APPEND) {
+      probeIds.addLast(probeId);
+      queued.increment();
     }
     return true;
   }
@@ -58,8 +100,74 @@ public class MemTableWrapper {
   public Buffer get(final String probeId) {
     var list = memTable.getOrDefault(probeId, null);
     if (list != null && !list.isEmpty()) {
-      return list.getLast();
+      return list.peekLast();
     }
     return null;
   }
+
+  /**
+   * Versions of the probe still in memory, oldest first: the last retainedVersions writes since its
+   * last flush in latest mode, every unflushed write in append mode.
+   */
+  public List<Buffer> getVersions(final String probeId) {
+    var versions = memTable.get(probeId);
+    return versions == null ? List.of() : List.copyOf(versions);
+  }
+
+  /**
+   * Collects, for consecutive ranges of queued writes, the value each probe should be flushed with.
+   * Nothing is removed from memory until {@link #release(FlushBatch)} is called, in the same order.
+   */
+  public List<FlushBatch> getFlushBatches(final List<List<String>> ranges) {
+    final var batched = new HashMap<String, Integer>();
+    return ranges.stream().map(range -> {
+      final var occurrences = new HashMap<String, Integer>();
+      range.forEach(p -> occurrences.merge(p, 1, Integer::sum));
+      final var values = new TreeMap<String, Buffer>();
+      occurrences.forEach((probeId, count) -> {
+        var value = getFlushValue(probeId, batched.getOrDefault(probeId, 0), count);
+        if (value != null) {
+          values.put(probeId, value);
+        }
+        batched.merge(probeId, count, Integer::sum);
+      });
+      return new FlushBatch(values, occurrences);
+    }).toList();
+  }
+
+  private Buffer getFlushValue(final String probeId, final int alreadyBatched, final int occurrences) {
+    var versions = memTable.get(probeId);
+    if (versions == null) {
+      return null;
+    }
+    if (config.getMode() == MemTableConfig.Mode.LATEST) {
+      return versions.peekLast();
+    }
+    // the queued writes of this probe in the range, of which only the last one is visible
+    return versions.stream().skip(alreadyBatched).limit(occurrences).reduce((first, second) -> second).orElse(null);
+  }
+
+  /**
+   * Drops the flushed writes from memory once their segment is visible to readers.
+   */
+  public void release(final FlushBatch batch) {
+    batch.getOccurrences().forEach((probeId, count) -> {
+      var flushed = batch.getValues().get(probeId);
+      memTable.computeIfPresent(probeId, (key, versions) -> {
+        if (config.getMode() == MemTableConfig.Mode.LATEST) {
+          if (versions.peekLast() == flushed) {
+            return null;
+          }
+          // written again while flushing, queue it for the next flush
+          probeIds.addLast(probeId);
+          queued.increment();
+          return versions;
+        }
+        for (var i = 0; i < count; i++) {
+          versions.pollFirst();
+        }
+        return versions.isEmpty() ? null : versions;
+      });
+    });
+  }
 }
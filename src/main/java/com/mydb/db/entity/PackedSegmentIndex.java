@@ -0,0 +1,353 @@
+package com.mydb.db.entity;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Read-only index of a flushed segment. All keys are stored UTF-8 encoded and sorted in one byte
+ * array, and offset/size pairs are packed into a single long array, so a lookup is a binary search
+ * without any per-key objects. Built once when a segment is flushed or merged. Write times, kept for
+ * retention, cost nothing while all keys share one, as in a flushed segment; keys written at
+ * different times, as in a merge output, point into a table of the distinct times with two bytes each.
+ */
+public class PackedSegmentIndex extends AbstractMap<String, SegmentMetadata> implements Serializable {
+
+  @Serial
+  private static final long serialVersionUID = 5388380270261334691L;
+
+  private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+  private static final int MAX_DISTINCT_WRITE_TIMES = Character.MAX_VALUE + 1;
+
+  private final byte[] keys;
+  private final int[] keyOffsets;
+  private final long[] locations;
+  // write time of every key, or of the newest one if they differ; 0 if not known
+  private final long writeTime;
+  // null unless the keys were written at different times: the distinct times, and per key the
+  // position of its time among them
+  private final long[] distinctWriteTimes;
+  private final char[] writeTimeSlots;
+  // a time per key, only set in indices persisted by earlier versions until they are repacked
+  private final long[] writeTimes;
+
+  private PackedSegmentIndex(byte[] keys, int[] keyOffsets, long[] locations, WriteTimeTable writeTimes) {
+    this.keys = keys;
+    this.keyOffsets = keyOffsets;
+    this.locations = locations;
+    this.writeTime = writeTimes.newest();
+    this.distinctWriteTimes = writeTimes.isUniform() ? null : writeTimes.distinctTimes();
+    this.writeTimeSlots = writeTimes.isUniform() ? null : writeTimes.keySlots();
+    this.writeTimes = null;
+  }
+
+  public static PackedSegmentIndex of(final Map<String, SegmentMetadata> index) {
+    return of(index, 0);
+  }
+
+  /**
+   * Packs the index, using defaultWriteTime for values whose write time is not known.
+   */
+  public static PackedSegmentIndex of(final Map<String, SegmentMetadata> index, final long defaultWriteTime) {
+    if (index instanceof PackedSegmentIndex packed) {
+      if (packed.writeTimes == null && (packed.writeTime != 0 || defaultWriteTime == 0)) {
+        return packed;
+      }
+      // persisted by an earlier version, only the write times are repacked
+      final var writeTimes = new WriteTimeTable();
+      for (var slot = 0; slot < packed.size(); slot++) {
+        writeTimes.add(packed.writeTimeAt(slot) == 0 ? defaultWriteTime : packed.writeTimeAt(slot));
+      }
+      return new PackedSegmentIndex(packed.keys, packed.keyOffsets, packed.locations, writeTimes);
+    }
+    final var encoded = new byte[index.size()][];
+    final var metadata = new SegmentMetadata[index.size()];
+    final var order = new Integer[index.size()];
+    var i = 0;
+    var totalKeyBytes = 0;
+    for (var entry : index.entrySet()) {
+      encoded[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      metadata[i] = entry.getValue();
+      order[i] = i;
+      totalKeyBytes += encoded[i].length;
+      i++;
+    }
+    Arrays.sort(order, (a, b) -> KEY_ORDER.compare(encoded[a], encoded[b]));
+
+    final var keys = new byte[totalKeyBytes];
+    final var keyOffsets = new int[encoded.length + 1];
+    final var locations = new long[encoded.length * 2];
+    final var writeTimes = new WriteTimeTable();
+    var position = 0;
+    for (var slot = 0; slot < order.length; slot++) {
+      final var key = encoded[order[slot]];
+      System.arraycopy(key, 0, keys, position, key.length);
+      keyOffsets[slot] = position;
+      locations[2 * slot] = metadata[order[slot]].getOffset();
+      locations[2 * slot + 1] = metadata[order[slot]].getSize();
+      writeTimes.add(metadata[order[slot]].getWriteTime() == 0
+          ? defaultWriteTime : metadata[order[slot]].getWriteTime());
+      position += key.length;
+    }
+    keyOffsets[encoded.length] = position;
+    return new PackedSegmentIndex(keys, keyOffsets, locations, writeTimes);
+  }
+
+  private int indexOf(final Object key) {
+    if (!(key instanceof String probeId)) {
+      return -1;
+    }
+    return slotOf(probeId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private int slotOf(final byte[] target) {
+    final var slot = ceilingSlot(target);
+    return slot < size() && compareKeyAt(slot, target) == 0 ? slot : -1;
+  }
+
+  /**
+   * Metadata of the UTF-8 encoded key, null if it is not in the index. A read looking a key up in
+   * many segments encodes it once and searches each index once.
+   */
+  public SegmentMetadata get(final byte[] key) {
+    final var slot = slotOf(key);
+    return slot < 0 ? null : metadataAt(slot);
+  }
+
+  /**
+   * First slot whose key is not less than the given UTF-8 encoded key, {@link #size()} if none.
+   */
+  public int ceilingSlot(final byte[] target) {
+    var low = 0;
+    var high = size();
+    while (low < high) {
+      final var mid = (low + high) >>> 1;
+      if (compareKeyAt(mid, target) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int compareKeyAt(final int slot, final byte[] target) {
+    return Arrays.compareUnsigned(keys, keyOffsets[slot], keyOffsets[slot + 1], target, 0, target.length);
+  }
+
+  public int compareKeys(final int slot, final PackedSegmentIndex other, final int otherSlot) {
+    return Arrays.compareUnsigned(
+        keys, keyOffsets[slot], keyOffsets[slot + 1],
+        other.keys, other.keyOffsets[otherSlot], other.keyOffsets[otherSlot + 1]);
+  }
+
+  public byte[] keyBytesAt(final int slot) {
+    return Arrays.copyOfRange(keys, keyOffsets[slot], keyOffsets[slot + 1]);
+  }
+
+  public String keyAt(final int slot) {
+    return new String(keys, keyOffsets[slot], keyOffsets[slot + 1] - keyOffsets[slot], StandardCharsets.UTF_8);
+  }
+
+  public SegmentMetadata metadataAt(final int slot) {
+    return new SegmentMetadata(locations[2 * slot], locations[2 * slot + 1], writeTimeAt(slot));
+  }
+
+  private long writeTimeAt(final int slot) {
+    if (writeTimeSlots != null) {
+      return distinctWriteTimes[writeTimeSlots[slot]];
+    }
+    return writeTimes != null ? writeTimes[slot] : writeTime;
+  }
+
+  @Override
+  public int size() {
+    return keyOffsets.length - 1;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public SegmentMetadata get(final Object key) {
+    final var slot = indexOf(key);
+    return slot < 0 ? null : metadataAt(slot);
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<String> iterator() {
+        return new SlotIterator<>() {
+          @Override
+          String at(int slot) {
+            return keyAt(slot);
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+
+      @Override
+      public int size() {
+        return PackedSegmentIndex.this.size();
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<String, SegmentMetadata>> entrySet() {
+    return new AbstractSet<>() {
+      @Override
+      public Iterator<Entry<String, SegmentMetadata>> iterator() {
+        return new SlotIterator<>() {
+          @Override
+          Entry<String, SegmentMetadata> at(int slot) {
+            return new SimpleImmutableEntry<>(keyAt(slot), metadataAt(slot));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return PackedSegmentIndex.this.size();
+      }
+    };
+  }
+
+  private abstract class SlotIterator<T> implements Iterator<T> {
+    private int next = 0;
+
+    abstract T at(int slot);
+
+    @Override
+    public boolean hasNext() {
+      return next < size();
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return at(next++);
+    }
+  }
+
+  /**
+   * Builds an index from keys appended in sorted order, copying the key bytes straight from the
+   * source indexes of a merge.
+   */
+  public static class Builder {
+    private byte[] keys = new byte[1024];
+    private int[] keyOffsets = new int[65];
+    private long[] locations = new long[128];
+    private final WriteTimeTable writeTimes = new WriteTimeTable();
+    private int size = 0;
+    private long maxWriteTime = 0;
+
+    public Builder add(final PackedSegmentIndex source, final int sourceSlot,
+                       final long offset, final long size, final long writeTime) {
+      final var from = source.keyOffsets[sourceSlot];
+      final var length = source.keyOffsets[sourceSlot + 1] - from;
+      final var position = keyOffsets[this.size];
+      if (position + length > keys.length) {
+        keys = Arrays.copyOf(keys, Math.max(keys.length * 2, position + length));
+      }
+      if (this.size + 2 > keyOffsets.length) {
+        keyOffsets = Arrays.copyOf(keyOffsets, keyOffsets.length * 2);
+        locations = Arrays.copyOf(locations, 2 * (keyOffsets.length - 1));
+      }
+      System.arraycopy(source.keys, from, keys, position, length);
+      locations[2 * this.size] = offset;
+      locations[2 * this.size + 1] = size;
+      writeTimes.add(writeTime);
+      maxWriteTime = Math.max(maxWriteTime, writeTime);
+      this.size++;
+      keyOffsets[this.size] = position + length;
+      return this;
+    }
+
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    public long getMaxWriteTime() {
+      return maxWriteTime;
+    }
+
+    public PackedSegmentIndex build() {
+      return new PackedSegmentIndex(
+          Arrays.copyOf(keys, keyOffsets[size]),
+          Arrays.copyOf(keyOffsets, size + 1),
+          Arrays.copyOf(locations, 2 * size),
+          writeTimes);
+    }
+  }
+
+  /**
+   * Collects the write times of keys added in slot order. Beyond {@link #MAX_DISTINCT_WRITE_TIMES}
+   * distinct times a key takes the closest newer time, or moves the newest time up to its own, so a
+   * value may expire late but never early.
+   */
+  private static class WriteTimeTable {
+    private final TreeMap<Long, Integer> slotsByTime = new TreeMap<>();
+    private long[] distinct = new long[4];
+    private char[] keySlots = new char[64];
+    private int size = 0;
+
+    void add(final long time) {
+      var slot = slotsByTime.get(time);
+      if (slot == null) {
+        if (slotsByTime.size() < MAX_DISTINCT_WRITE_TIMES) {
+          slot = slotsByTime.size();
+          if (slot == distinct.length) {
+            distinct = Arrays.copyOf(distinct, slot * 2);
+          }
+        } else {
+          final var newer = slotsByTime.ceilingEntry(time);
+          slot = newer != null ? newer.getValue() : slotsByTime.pollLastEntry().getValue();
+        }
+        if (distinct[slot] <= time) {
+          distinct[slot] = time;
+          slotsByTime.put(time, slot);
+        }
+      }
+      if (size == keySlots.length) {
+        keySlots = Arrays.copyOf(keySlots, size * 2);
+      }
+      keySlots[size++] = (char) slot.intValue();
+    }
+
+    boolean isUniform() {
+      return slotsByTime.size() <= 1;
+    }
+
+    long newest() {
+      return slotsByTime.isEmpty() ? 0 : slotsByTime.lastKey();
+    }
+
+    long[] distinctTimes() {
+      return Arrays.copyOf(distinct, slotsByTime.size());
+    }
+
+    char[] keySlots() {
+      return Arrays.copyOf(keySlots, size);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package com.mydb.db.entity;
+
+import io.vertx.core.buffer.Buffer;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Latest value of a probe, either already in memory or as a region of a segment file that can be
+ * served straight from the page cache, or a miss. A segment region holds the read view it was found
+ * in, which must be released once the bytes are read or sent.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ReadResult {
+
+  private final Buffer data;
+  private final String path;
+  private final long offset;
+  private final long size;
+  private final ReadView view;
+
+  private static final ReadResult MISS = new ReadResult(null, null, 0, 0, null);
+
+  public static ReadResult miss() {
+    return MISS;
+  }
+
+  public static ReadResult inMemory(final Buffer data) {
+    return new ReadResult(data, null, 0, data.length(), null);
+  }
+
+  public static ReadResult onDisk(final String path, final SegmentMetadata metadata, final ReadView view) {
+    return new ReadResult(null, path, metadata.getOffset(), metadata.getSize(), view);
+  }
+
+  public boolean isInMemory() {
+    return data != null;
+  }
+
+  public boolean isMiss() {
+    return this == MISS;
+  }
+
+  public void release() {
+    if (view != null) {
+      view.release();
+    }
+  }
+}
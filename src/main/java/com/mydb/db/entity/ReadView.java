@@ -0,0 +1,48 @@
+package com.mydb.db.entity;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Immutable list of the segments visible to reads, newest first. A view is reference counted: the
+ * service holds one reference while the view is current and every read holds one until it is done
+ * with the files, so a segment file outlives all views that contain it.
+ */
+public class ReadView {
+
+  @Getter
+  private final long version;
+  @Getter
+  private final List<SegmentIndex> segments;
+  private final AtomicInteger references = new AtomicInteger(1);
+  private final Consumer<ReadView> onClosed;
+
+  public ReadView(final long version, final List<SegmentIndex> segments, final Consumer<ReadView> onClosed) {
+    this.version = version;
+    this.segments = List.copyOf(segments);
+    this.onClosed = onClosed;
+  }
+
+  /**
+   * Takes a reference unless the view was already closed, i.e. replaced and released by everyone.
+   */
+  public boolean tryAcquire() {
+    var current = references.get();
+    while (current > 0) {
+      if (references.compareAndSet(current, current + 1)) {
+        return true;
+      }
+      current = references.get();
+    }
+    return false;
+  }
+
+  public void release() {
+    if (references.decrementAndGet() == 0) {
+      onClosed.accept(this);
+    }
+  }
+}
@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 @Data
@@ -19,4 +20,29 @@ public class SegmentIndex implements Serializable {
   private Segment segment;
 
   private Map<String, SegmentMetadata> segmentIndex;
+
+  // newest write time of any value in the segment, 0 in indices persisted before it was recorded
+  private long maxWriteTime;
+
+  // offsets of the compressed blocks in the archive, followed by the end of the last one; null while
+  // the segment is local
+  private long[] archiveBlocks;
+
+  public SegmentIndex(final Segment segment, final Map<String, SegmentMetadata> segmentIndex, final long maxWriteTime) {
+    this(segment, segmentIndex, maxWriteTime, null);
+  }
+
+  public boolean isArchived() {
+    return archiveBlocks != null;
+  }
+
+  /**
+   * Metadata of the UTF-8 encoded key, null if the segment does not hold it.
+   */
+  public SegmentMetadata find(final byte[] key) {
+    if (segmentIndex instanceof PackedSegmentIndex packed) {
+      return packed.get(key);
+    }
+    return segmentIndex.get(new String(key, StandardCharsets.UTF_8));
+  }
 }
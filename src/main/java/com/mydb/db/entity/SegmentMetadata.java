@@ -17,4 +17,10 @@ public class SegmentMetadata implements Serializable {
 
   private long offset;
   private long size;
+  // epoch millis the value was written at, 0 if not known
+  private long writeTime;
+
+  public SegmentMetadata(final long offset, final long size) {
+    this(offset, size, 0);
+  }
 }
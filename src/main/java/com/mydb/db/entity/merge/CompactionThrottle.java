@@ -0,0 +1,49 @@
+package com.mydb.db.entity.merge;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Limits compaction to a byte rate and pauses it while a memtable flush is running, so flushes always
+ * get the disk first. A rate of 0 or less leaves compaction unthrottled.
+ */
+public class CompactionThrottle {
+
+  // null when unthrottled
+  private final RateLimiter rateLimiter;
+  private final List<Runnable> flushListeners = new CopyOnWriteArrayList<>();
+  private int activeFlushes = 0;
+
+  public CompactionThrottle(final long bytesPerSecond) {
+    this.rateLimiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+  }
+
+  public void addFlushListener(final Runnable listener) {
+    flushListeners.add(listener);
+  }
+
+  public synchronized void flushStarted() {
+    activeFlushes++;
+  }
+
+  public void flushFinished() {
+    synchronized (this) {
+      activeFlushes--;
+      notifyAll();
+    }
+    flushListeners.forEach(Runnable::run);
+  }
+
+  public void acquire(final int bytes) throws InterruptedException {
+    synchronized (this) {
+      while (activeFlushes > 0) {
+        wait();
+      }
+    }
+    if (rateLimiter != null && bytes > 0) {
+      rateLimiter.acquire(bytes);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.mydb.db.entity.merge;
+
+import com.mydb.db.entity.PackedSegmentIndex;
+import com.mydb.db.entity.SegmentMetadata;
+import lombok.Getter;
+
+/**
+ * Position of a merge within one input segment's key range. Cursors order by key and then by input,
+ * inputs being numbered newest first, so the newest version of a key is always taken first.
+ */
+@Getter
+public class MergeCursor implements Comparable<MergeCursor> {
+  private final int input;
+  private final PackedSegmentIndex index;
+  private final int end;
+  private int slot;
+
+  public MergeCursor(int input, PackedSegmentIndex index, int start, int end) {
+    this.input = input;
+    this.index = index;
+    this.slot = start;
+    this.end = end;
+  }
+
+  public boolean hasCurrent() {
+    return slot < end;
+  }
+
+  public void advance() {
+    slot++;
+  }
+
+  public SegmentMetadata getMetadata() {
+    return index.metadataAt(slot);
+  }
+
+  public boolean hasSameKey(final MergeCursor other) {
+    return index.compareKeys(slot, other.index, other.slot) == 0;
+  }
+
+  @Override
+  public int compareTo(final MergeCursor other) {
+    final var keyComparison = index.compareKeys(slot, other.index, other.slot);
+    return keyComparison != 0 ? keyComparison : Integer.compare(input, other.input);
+  }
+}
@@ -1,20 +1,31 @@
 package com.mydb.db.entity.merge;
 
+import com.mydb.db.entity.FlushBatch;
+import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.entity.Segment;
 import com.mydb.db.entity.SegmentIndex;
 import com.mydb.db.services.FileIOService;
 import com.mydb.db.services.LSMService;
+import com.mydb.db.services.ReadViewService;
 import com.mydb.db.services.SegmentService;
-import io.vertx.core.buffer.Buffer;
+import com.mydb.db.services.WALService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.springframework.util.SerializationUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 import static java.util.concurrent.CompletableFuture.supplyAsync;
@@ -22,45 +33,89 @@ import static java.util.concurrent.CompletableFuture.supplyAsync;
 @Slf4j
 public class SegmentGenerator {
 
+  private static final long FLUSH_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private final FileIOService fileIOService;
   private final SegmentService segmentService;
+  private final WALService walService;
+  private final ReadViewService readViews;
+  private final CompactionThrottle compactionThrottle;
+  private final Executor executor;
   private final Lock lock = new ReentrantLock();
-  private final int memTableSoftLimit;
-  private final int memTableHardLimit;
+  private volatile int memTableSoftLimit;
+  private volatile int memTableHardLimit;
+  private volatile int segmentRecords;
+  // after a failed flush writes go on without retrying it for a while
+  private volatile long nextFlushNanos = 0;
 
   public SegmentGenerator(
       FileIOService fileIOService, SegmentService segmentService,
+      WALService walService,
+      ReadViewService readViews,
+      CompactionThrottle compactionThrottle,
+      Executor executor,
       int memTableSoftLimit,
-      int memTableHardLimit
+      int memTableHardLimit,
+      int segmentRecords
   ) {
     this.fileIOService = fileIOService;
     this.segmentService = segmentService;
+    this.walService = walService;
+    this.readViews = readViews;
+    this.compactionThrottle = compactionThrottle;
+    this.executor = executor;
+    this.memTableSoftLimit = memTableSoftLimit;
+    this.memTableHardLimit = memTableHardLimit;
+    this.segmentRecords = segmentRecords;
+  }
+
+  /**
+   * Changes the limits for the next flush, used when they are tuned at runtime.
+   */
+  public void setLimits(final int memTableSoftLimit, final int memTableHardLimit, final int segmentRecords) {
     this.memTableSoftLimit = memTableSoftLimit;
     this.memTableHardLimit = memTableHardLimit;
+    this.segmentRecords = segmentRecords;
+  }
+
+  /**
+   * Runs the task while no flush is in progress; writes keep going but do not start a flush.
+   */
+  public <T> T runExclusive(final Supplier<T> task) {
+    lock.lock();
+    try {
+      return task.get();
+    } finally {
+      lock.unlock();
+    }
   }
 
   public boolean update(
-      Deque<SegmentIndex> indices,
       Deque<String> probeIds,
-      Map<String, Deque<Buffer>> memTable
+      MemTableWrapper memTable
   ) {
-    return generate(indices, probeIds, memTable);
+    return generate(probeIds, memTable);
   }
 
   private boolean generate(
-      Deque<SegmentIndex> indices,
       Deque<String> probeIds,
-      Map<String, Deque<Buffer>> memTable
+      MemTableWrapper memTable
   ) {
     if (lock.tryLock()) {
       try {
-        final var size = probeIds.size();
-        if (isMemTableFull(size)) {
-          updateHardLimitBreach(size);
-          flushMultipleSegments(indices, probeIds, memTable, size);
+        if (isMemTableFull(probeIds.size()) && System.nanoTime() - nextFlushNanos >= 0) {
+          updateHardLimitBreach(probeIds.size());
+          compactionThrottle.flushStarted();
+          try {
+            flushMultipleSegments(probeIds, memTable);
+          } finally {
+            compactionThrottle.flushFinished();
+          }
         }
       } catch (Exception ex) {
-        throw new RuntimeException(ex);
+        // the write that triggered the flush is durable, only moving data into segments failed
+        log.error("Flush failed, the memtable and WAL are kept for the next flush", ex);
+        nextFlushNanos = System.nanoTime() + FLUSH_RETRY_DELAY_NANOS;
       } finally {
         lock.unlock();
       }
@@ -69,35 +124,67 @@ public class SegmentGenerator {
   }
 
 
+  /**
+   * Writes the queued writes into segments. Nothing is published or dropped from memory unless
+   * every segment was written, and the WAL is only checkpointed once the index listing the segments
+   * is durable; a failure leaves everything in the memtable and the WAL for the next flush.
+   */
   private void flushMultipleSegments(
-      final Deque<SegmentIndex> indices,
       final Deque<String> probeIds,
-      final Map<String, Deque<Buffer>> memTable,
-      final int size
-  ) {
-    LinkedList<ImmutablePair<Integer, Integer>> ranges = getRanges(size);
+      final MemTableWrapper memTable
+  ) throws IOException {
+    // every write in the closed WAL files is queued by now, flushing all of it makes them obsolete
+    final var flushedWal = walService.rotate();
+    LinkedList<ImmutablePair<Integer, Integer>> ranges = getRanges(probeIds.size());
+    final var queued = probeIds.stream().limit(ranges.getLast().right).toList();
+    final var batches = memTable.getFlushBatches(
+        ranges.stream().map(range -> queued.subList(range.left, range.right)).toList());
+
+    final var segmentsWritten = batches.stream()
+        .map(batch -> ImmutablePair.of(batch, segmentService.getNewSegment()))
+        .map(pair -> write(pair.right, pair.left))
+        .toList();
+    try {
+      CompletableFuture.allOf(segmentsWritten.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      segmentsWritten.stream()
+          .filter(written -> !written.isCompletedExceptionally())
+          .forEach(written -> new File(written.join().left.getSegment().getSegmentPath()).delete());
+      throw new IOException("Unable to write the flushed segments", e.getCause());
+    }
 
-    var segmentsWritten = ranges.parallelStream()
-        .map(range -> ImmutablePair.of(range, segmentService.getNewSegment()))
-        .map(pair -> supplyAsync(
-            () -> ImmutablePair.of(fileIOService.persist(pair.right, probeIds, memTable, pair.left), pair.right))
-        )
+    // publish in range order so later writes end up in newer segments
+    segmentsWritten.stream()
         .map(CompletableFuture::join)
-        .map(pair -> {
-          updateIndices(indices, pair.left);
-          return pair.right;
-        }).toList();
+        .forEach(pair -> {
+          updateIndices(pair.left);
+          memTable.release(pair.right);
+        });
 
     clearProbeIds(probeIds, ImmutablePair.of(0, ranges.getLast().right));
     updateHardLimitBreach(probeIds.size());
 
-    final var lastSegment = segmentsWritten.get(segmentsWritten.size() - 1);
-    supplyAsync(() -> fileIOService.persistIndices(
-        lastSegment.getBackupPath(), SerializationUtils.serialize(indices)
-    ));
+    readViews.persistIndices();
+    segmentService.checkpointWal(flushedWal);
+    walService.deleteUpTo(flushedWal);
+  }
+
+  private CompletableFuture<ImmutablePair<SegmentIndex, FlushBatch>> write(final Segment segment,
+                                                                          final FlushBatch batch) {
+    try {
+      return supplyAsync(() -> ImmutablePair.of(persist(segment, batch), batch), executor);
+    } catch (RejectedExecutionException e) {
+      // fails the flush like a failed write, the segments already written are deleted
+      return CompletableFuture.failedFuture(e);
+    }
+  }
 
-    FileIOService.STAGED_WAL_FILE.delete();
-    FileIOService.WAL_FILE.renameTo(FileIOService.STAGED_WAL_FILE);
+  private SegmentIndex persist(final Segment segment, final FlushBatch batch) {
+    try {
+      return fileIOService.persist(segment, batch.getValues());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   private void clearProbeIds(
@@ -114,8 +201,13 @@ public class SegmentGenerator {
     );
   }
 
-  private void updateIndices(Deque<SegmentIndex> indices, SegmentIndex s) {
-    indices.addFirst(s);
+  private void updateIndices(SegmentIndex s) {
+    readViews.publish(segments -> {
+      var next = new ArrayList<SegmentIndex>(segments.size() + 1);
+      next.add(s);
+      next.addAll(segments);
+      return next;
+    });
   }
 
   private boolean isMemTableFull(final int payloadCount) {
@@ -129,11 +221,15 @@ public class SegmentGenerator {
   private LinkedList<ImmutablePair<Integer, Integer>> getRanges(int size) {
     var ranges = new LinkedList<ImmutablePair<Integer, Integer>>();
     var start = 0;
-    var end = memTableSoftLimit;
+    final var step = segmentRecords;
+    var end = step;
     while (size >= end) {
       ranges.add(ImmutablePair.of(start, end));
-      start = end + 1;
-      end += memTableSoftLimit;
+      start = end;
+      end += step;
+    }
+    if (start < size) {
+      ranges.add(ImmutablePair.of(start, size));
     }
     return ranges;
   }
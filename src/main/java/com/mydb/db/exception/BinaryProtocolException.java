@@ -0,0 +1,7 @@
+package com.mydb.db.exception;
+
+public class BinaryProtocolException extends RuntimeException {
+  public BinaryProtocolException(String errorMessage) {
+    super(errorMessage);
+  }
+}
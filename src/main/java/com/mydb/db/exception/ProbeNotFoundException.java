@@ -1,8 +0,0 @@
-package com.mydb.db.exception;
-
-public class ProbeNotFoundException extends RuntimeException {
-  public ProbeNotFoundException(String errorMessage) {
-    super(errorMessage);
-  }
-}
-
@@ -0,0 +1,185 @@
+package com.mydb.db.feed;
+
+import com.mydb.db.entity.MemTableWrapper;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+
+/**
+ * Pushes writes to subscribers as server-sent events, each with the WAL epoch and sequence as the
+ * event id, {@code <epoch>:<sequence>}. A subscription names a set of probeIds and/or a probeId
+ * prefix and may resume from an event id, sent as Last-Event-ID by reconnecting clients, out of a
+ * bounded in-memory backlog. Missed events are announced with a gap event, or a reset event if the
+ * node restarted since. A subscriber that falls behind by more than its buffer is disconnected and
+ * resumes on reconnect. All state is confined to the verticle's context.
+ */
+@Slf4j
+public class ChangeFeed {
+
+  private static final long KEEPALIVE_INTERVAL_MS = 15000;
+  private static final Buffer KEEPALIVE = Buffer.buffer(":\n\n");
+
+  private final Vertx vertx;
+  private final MemTableWrapper memTable;
+  private final long epoch;
+  private final int backlogRecords;
+  private final int subscriberBufferEvents;
+  private final Deque<Change> backlog = new ArrayDeque<>();
+  private final Set<Subscriber> subscribers = new HashSet<>();
+  private long latestSequence = 0;
+
+  @Value
+  private static class Change {
+    long sequence;
+    String probeId;
+    Buffer event;
+  }
+
+  public ChangeFeed(Vertx vertx, MemTableWrapper memTable, long epoch, int backlogRecords,
+                    int subscriberBufferEvents) {
+    this.vertx = vertx;
+    this.memTable = memTable;
+    this.epoch = epoch;
+    this.backlogRecords = backlogRecords;
+    this.subscriberBufferEvents = subscriberBufferEvents;
+  }
+
+  public void start() {
+    final Context context = vertx.getOrCreateContext();
+    memTable.addChangeListener((sequence, probeId, payload) ->
+        context.runOnContext(v -> publish(sequence, probeId, payload)));
+    vertx.setPeriodic(KEEPALIVE_INTERVAL_MS, id -> subscribers.forEach(s -> s.send(KEEPALIVE)));
+  }
+
+  /**
+   * GET /changes?probeId=a&probeId=b&prefix=c, resuming after the Last-Event-ID header or the from
+   * query parameter if given, otherwise with the next write.
+   */
+  public void subscribe(final RoutingContext context) {
+    final var probeIds = Set.copyOf(context.queryParam("probeId"));
+    final var prefix = context.queryParams().get("prefix");
+    if (probeIds.isEmpty() && prefix == null) {
+      context.response().setStatusCode(BAD_REQUEST.code()).end("probeId or prefix is required");
+      return;
+    }
+    final var lastEventId = Optional.ofNullable(context.request().getHeader("Last-Event-ID"))
+        .or(() -> Optional.ofNullable(context.queryParams().get("from")));
+    final long lastEpoch;
+    final long lastSequence;
+    try {
+      // a bare sequence is one of the current epoch
+      final var position = lastEventId.orElse(epoch + ":" + latestSequence);
+      final var separator = position.indexOf(':');
+      lastEpoch = separator < 0 ? epoch : Long.parseLong(position.substring(0, separator));
+      lastSequence = Long.parseLong(position.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      context.response().setStatusCode(BAD_REQUEST.code()).end("Invalid resume position");
+      return;
+    }
+
+    final var response = context.response()
+        .setChunked(true)
+        .putHeader("content-type", "text/event-stream")
+        .putHeader("cache-control", "no-cache");
+    final var subscriber = new Subscriber(
+        response, String.valueOf(context.request().remoteAddress()), probeIds, prefix);
+    response.closeHandler(v -> subscribers.remove(subscriber));
+    response.drainHandler(v -> subscriber.drain());
+    response.write(KEEPALIVE);
+
+    final long from;
+    if (lastEpoch != epoch) {
+      // sequences of another epoch say nothing about this one, the client has to start over
+      subscriber.send(Buffer.buffer(String.format("event: reset\ndata: {\"epoch\":%d}\n\n", epoch)));
+      from = 0;
+    } else {
+      from = Math.min(lastSequence, latestSequence);
+    }
+    final var oldest = backlog.isEmpty() ? latestSequence + 1 : backlog.getFirst().getSequence();
+    if (from < latestSequence && oldest > from + 1) {
+      subscriber.send(Buffer.buffer(
+          String.format("event: gap\ndata: {\"from\":%d,\"to\":%d}\n\n", from + 1, oldest - 1)));
+    }
+    backlog.stream()
+        .filter(change -> change.getSequence() > from && subscriber.matches(change.getProbeId()))
+        .forEach(change -> subscriber.send(change.getEvent()));
+    subscribers.add(subscriber);
+  }
+
+  private void publish(final long sequence, final String probeId, final Buffer payload) {
+    latestSequence = Math.max(latestSequence, sequence);
+    final var change = new Change(sequence, probeId, encode(epoch, sequence, payload));
+    if (backlogRecords > 0) {
+      backlog.addLast(change);
+      while (backlog.size() > backlogRecords) {
+        backlog.removeFirst();
+      }
+    }
+    subscribers.stream()
+        .filter(subscriber -> subscriber.matches(probeId))
+        .toList()
+        .forEach(subscriber -> subscriber.send(change.getEvent()));
+  }
+
+  private static Buffer encode(final long epoch, final long sequence, final Buffer payload) {
+    final var event = new StringBuilder("id: ").append(epoch).append(':').append(sequence)
+        .append("\nevent: change\n");
+    for (var line : payload.toString().split("\r\n|\r|\n")) {
+      event.append("data: ").append(line).append('\n');
+    }
+    return Buffer.buffer(event.append('\n').toString());
+  }
+
+  private class Subscriber {
+    private final HttpServerResponse response;
+    private final String client;
+    private final Set<String> probeIds;
+    private final String prefix;
+    private final Deque<Buffer> buffered = new ArrayDeque<>();
+
+    Subscriber(HttpServerResponse response, String client, Set<String> probeIds, String prefix) {
+      this.response = response;
+      this.client = client;
+      this.probeIds = probeIds;
+      this.prefix = prefix;
+    }
+
+    boolean matches(final String probeId) {
+      return probeIds.contains(probeId) || (prefix != null && probeId.startsWith(prefix));
+    }
+
+    void send(final Buffer event) {
+      if (buffered.isEmpty() && !response.writeQueueFull()) {
+        response.write(event);
+        return;
+      }
+      if (buffered.size() >= subscriberBufferEvents) {
+        // the client reconnects with Last-Event-ID and catches up from the backlog
+        log.warn("Change feed subscriber {} is too slow, disconnecting", client);
+        subscribers.remove(this);
+        buffered.clear();
+        response.reset();
+        return;
+      }
+      buffered.addLast(event);
+    }
+
+    void drain() {
+      while (!buffered.isEmpty() && !response.writeQueueFull()) {
+        response.write(buffered.pollFirst());
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.mydb.db.protocol;
+
+import com.mydb.db.exception.BinaryProtocolException;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mydb.db.protocol.BinaryProtocol.BATCH_PUT;
+import static com.mydb.db.protocol.BinaryProtocol.DUPLICATE;
+import static com.mydb.db.protocol.BinaryProtocol.ERROR;
+import static com.mydb.db.protocol.BinaryProtocol.GET;
+import static com.mydb.db.protocol.BinaryProtocol.INSERTED;
+import static com.mydb.db.protocol.BinaryProtocol.MULTI_GET;
+import static com.mydb.db.protocol.BinaryProtocol.NOT_FOUND;
+import static com.mydb.db.protocol.BinaryProtocol.PUT;
+
+/**
+ * Client for {@link BinaryProtocol} over a single connection. Requests are pipelined: every call
+ * writes its request right away and the responses are matched to calls in order. Safe to use from
+ * several threads.
+ */
+public class BinaryClient {
+
+  @Value
+  public static class Put {
+    String probeId;
+    String eventId;
+    Buffer payload;
+  }
+
+  public enum PutResult {
+    INSERTED,
+    DUPLICATE,
+    // not applied, can be retried on its own
+    FAILED
+  }
+
+  private final NetSocket socket;
+  private final RecordParser parser = RecordParser.newFixed(Integer.BYTES);
+  private final Deque<Promise<Buffer>> pending = new ArrayDeque<>();
+  private boolean readingLength = true;
+
+  private BinaryClient(final NetSocket socket) {
+    this.socket = socket;
+    parser.handler(this::handle);
+    socket.handler(parser);
+    socket.closeHandler(v -> failPending());
+  }
+
+  public static Future<BinaryClient> connect(final Vertx vertx, final String host, final int port) {
+    return vertx.createNetClient().connect(port, host).map(BinaryClient::new);
+  }
+
+  /**
+   * Completes with false if the eventId was already ingested for the probe.
+   */
+  public Future<Boolean> put(final String probeId, final String eventId, final Buffer payload) {
+    var request = Buffer.buffer().appendByte(PUT);
+    BinaryProtocol.appendString(request, probeId);
+    BinaryProtocol.appendString(request, eventId);
+    BinaryProtocol.appendPayload(request, payload);
+    return send(request).map(response -> response.getByte(1) == INSERTED);
+  }
+
+  /**
+   * Completes with the result of every put, in request order.
+   */
+  public Future<List<PutResult>> batchPut(final List<Put> puts) {
+    var request = Buffer.buffer().appendByte(BATCH_PUT).appendInt(puts.size());
+    puts.forEach(put -> {
+      BinaryProtocol.appendString(request, put.getProbeId());
+      BinaryProtocol.appendString(request, put.getEventId());
+      BinaryProtocol.appendPayload(request, put.getPayload());
+    });
+    return send(request).map(response -> {
+      var reader = new BinaryProtocol.Reader(response, 1);
+      var count = reader.readInt();
+      var results = new ArrayList<PutResult>(count);
+      for (var i = 0; i < count; i++) {
+        results.add(switch (reader.readByte()) {
+          case INSERTED -> PutResult.INSERTED;
+          case DUPLICATE -> PutResult.DUPLICATE;
+          default -> PutResult.FAILED;
+        });
+      }
+      return results;
+    });
+  }
+
+  /**
+   * Completes with the latest value of the probe, null if there is none.
+   */
+  public Future<Buffer> get(final String probeId) {
+    var request = BinaryProtocol.appendString(Buffer.buffer().appendByte(GET), probeId);
+    return send(request).map(response ->
+        response.getByte(0) == NOT_FOUND ? null : response.getBuffer(1, response.length()));
+  }
+
+  /**
+   * Completes with the latest values of the probes that have one, in request order.
+   */
+  public Future<Map<String, Buffer>> multiGet(final List<String> probeIds) {
+    var request = Buffer.buffer().appendByte(MULTI_GET).appendInt(probeIds.size());
+    probeIds.forEach(probeId -> BinaryProtocol.appendString(request, probeId));
+    return send(request).map(response -> {
+      var reader = new BinaryProtocol.Reader(response, 1);
+      var count = reader.readInt();
+      var values = new LinkedHashMap<String, Buffer>();
+      for (var i = 0; i < count; i++) {
+        if (reader.readByte() == 1) {
+          values.put(probeIds.get(i), reader.readPayload());
+        }
+      }
+      return values;
+    });
+  }
+
+  public Future<Void> close() {
+    return socket.close();
+  }
+
+  private synchronized Future<Buffer> send(final Buffer request) {
+    final Promise<Buffer> promise = Promise.promise();
+    pending.addLast(promise);
+    socket.write(BinaryProtocol.frame(request));
+    return promise.future();
+  }
+
+  private synchronized void handle(final Buffer buffer) {
+    if (readingLength) {
+      readingLength = false;
+      parser.fixedSizeMode(buffer.getInt(0));
+      return;
+    }
+    readingLength = true;
+    parser.fixedSizeMode(Integer.BYTES);
+    final var promise = pending.pollFirst();
+    if (promise == null) {
+      return;
+    }
+    if (buffer.getByte(0) == ERROR) {
+      promise.fail(new BinaryProtocolException(new BinaryProtocol.Reader(buffer, 1).readString()));
+    } else {
+      promise.complete(buffer);
+    }
+  }
+
+  private synchronized void failPending() {
+    pending.forEach(promise -> promise.tryFail(new BinaryProtocolException("Connection closed")));
+    pending.clear();
+  }
+}
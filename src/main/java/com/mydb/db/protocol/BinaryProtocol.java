@@ -0,0 +1,109 @@
+package com.mydb.db.protocol;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length prefixed binary protocol. Every request and response is an int length followed by that
+ * many bytes; a request starts with its operation, a response with its status. Strings are a short
+ * length followed by UTF-8 bytes, payloads an int length followed by the bytes. A connection may
+ * pipeline any number of requests and gets the responses back in request order.
+ *
+ * <pre>
+ * PUT        probeId eventId payload          -> OK result(byte)
+ * GET        probeId                          -> OK payload | NOT_FOUND
+ * MULTI_GET  count(int) probeId*              -> OK count(int) (found(byte) payload?)*
+ * BATCH_PUT  count(int) (probeId eventId payload)* -> OK count(int) result(byte)*
+ * </pre>
+ * A put's result is {@link #INSERTED}, {@link #DUPLICATE} if its eventId was already ingested for the
+ * probe, or, only within a batch, {@link #FAILED}; the other puts of a batch are applied regardless.
+ * An empty eventId means the put has none and is never treated as a duplicate.
+ * Any request may instead be answered with ERROR followed by a message string.
+ */
+public interface BinaryProtocol {
+
+  byte PUT = 1;
+  byte GET = 2;
+  byte MULTI_GET = 3;
+  byte BATCH_PUT = 4;
+
+  byte OK = 0;
+  byte NOT_FOUND = 1;
+  byte ERROR = 2;
+
+  byte DUPLICATE = 0;
+  byte INSERTED = 1;
+  byte FAILED = 2;
+
+  int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+  static Buffer frame(final Buffer body) {
+    return Buffer.buffer(Integer.BYTES + body.length()).appendInt(body.length()).appendBuffer(body);
+  }
+
+  static Buffer appendString(final Buffer buffer, final String value) {
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    return buffer.appendShort((short) bytes.length).appendBytes(bytes);
+  }
+
+  static Buffer appendPayload(final Buffer buffer, final Buffer payload) {
+    return buffer.appendInt(payload.length()).appendBuffer(payload);
+  }
+
+  /**
+   * Reads the fields of a frame body front to back.
+   */
+  class Reader {
+    private final Buffer buffer;
+    private int position;
+
+    public Reader(final Buffer buffer, final int position) {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    public byte readByte() {
+      return buffer.getByte(position++);
+    }
+
+    public int readInt() {
+      var value = buffer.getInt(position);
+      position += Integer.BYTES;
+      return value;
+    }
+
+    /**
+     * Reads the item count of a list, rejecting counts the rest of the body cannot hold with items of
+     * at least minItemBytes each.
+     */
+    public int readCount(final int minItemBytes) {
+      var count = readInt();
+      if (count < 0 || (long) count * minItemBytes > buffer.length() - position) {
+        throw new IllegalArgumentException("Invalid item count " + count);
+      }
+      return count;
+    }
+
+    public String readString() {
+      var length = Short.toUnsignedInt(buffer.getShort(position));
+      position += Short.BYTES;
+      var value = buffer.getString(position, position + length, StandardCharsets.UTF_8.name());
+      position += length;
+      return value;
+    }
+
+    public Buffer readPayload() {
+      var length = readInt();
+      var value = buffer.getBuffer(position, position + length);
+      position += length;
+      return value;
+    }
+
+    public Buffer readRemaining() {
+      var value = buffer.getBuffer(position, buffer.length());
+      position = buffer.length();
+      return value;
+    }
+  }
+}
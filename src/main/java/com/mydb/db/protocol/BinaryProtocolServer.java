@@ -0,0 +1,270 @@
+package com.mydb.db.protocol;
+
+import com.mydb.db.StorageExecutors;
+import com.mydb.db.cluster.ClusterRouter;
+import com.mydb.db.exception.HardLimitBreachedException;
+import com.mydb.db.services.LSMService;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.mydb.db.protocol.BinaryProtocol.BATCH_PUT;
+import static com.mydb.db.protocol.BinaryProtocol.DUPLICATE;
+import static com.mydb.db.protocol.BinaryProtocol.ERROR;
+import static com.mydb.db.protocol.BinaryProtocol.FAILED;
+import static com.mydb.db.protocol.BinaryProtocol.GET;
+import static com.mydb.db.protocol.BinaryProtocol.INSERTED;
+import static com.mydb.db.protocol.BinaryProtocol.MAX_FRAME_BYTES;
+import static com.mydb.db.protocol.BinaryProtocol.MULTI_GET;
+import static com.mydb.db.protocol.BinaryProtocol.NOT_FOUND;
+import static com.mydb.db.protocol.BinaryProtocol.OK;
+import static com.mydb.db.protocol.BinaryProtocol.PUT;
+
+/**
+ * Serves {@link BinaryProtocol} on a plain TCP port next to the HTTP API. Reads of a connection are
+ * executed concurrently on the storage executors, while writes are handed to the WAL on the event
+ * loop, so they are written in the order they arrived. Responses are written in request order. A
+ * connection stops being read while too many of its requests are in flight or its socket is backed
+ * up. In a cluster, requests naming a probe owned by another node are refused with the owner, since
+ * unlike HTTP requests they are not proxied.
+ */
+@Slf4j
+public class BinaryProtocolServer {
+
+  private static final int MAX_ERROR_MESSAGE_LENGTH = 1024;
+
+  private final Vertx vertx;
+  private final LSMService lsmService;
+  private final StorageExecutors executors;
+  private final int port;
+  private final int maxInFlight;
+  private final boolean acceptWrites;
+  // null unless the node is part of a cluster
+  private final ClusterRouter router;
+
+  public BinaryProtocolServer(Vertx vertx, LSMService lsmService, StorageExecutors executors,
+                              int port, int maxInFlight, boolean acceptWrites, ClusterRouter router) {
+    this.vertx = vertx;
+    this.lsmService = lsmService;
+    this.executors = executors;
+    this.port = port;
+    this.maxInFlight = maxInFlight;
+    this.acceptWrites = acceptWrites;
+    this.router = router;
+  }
+
+  public Future<NetServer> start() {
+    return vertx.createNetServer()
+        .connectHandler(Connection::new)
+        .listen(port)
+        .onSuccess(server -> log.info("Binary protocol listening on port - {}", port))
+        .onFailure(e -> log.error("Failed to start binary protocol server", e));
+  }
+
+  private Future<Buffer> execute(final Buffer request) {
+    final var reader = new BinaryProtocol.Reader(request, 1);
+    try {
+      return switch (request.getByte(0)) {
+        case PUT -> put(reader);
+        case GET -> get(reader);
+        case MULTI_GET -> multiGet(reader);
+        case BATCH_PUT -> batchPut(reader);
+        default -> Future.failedFuture(new IllegalArgumentException("Unknown operation " + request.getByte(0)));
+      };
+    } catch (RuntimeException e) {
+      // fields running past the body, negative lengths, counts the body cannot hold
+      return Future.failedFuture(new IllegalArgumentException("Malformed request"));
+    }
+  }
+
+  private Future<Buffer> put(final BinaryProtocol.Reader reader) {
+    final var probeId = reader.readString();
+    final var eventId = reader.readString();
+    final var payload = reader.readPayload();
+    if (!acceptWrites) {
+      return Future.failedFuture(new IllegalStateException("Writes are only accepted by the leader"));
+    }
+    return ifOwned(List.of(probeId), () -> insert(probeId, eventId, payload)
+        .map(inserted -> Buffer.buffer(2).appendByte(OK).appendByte(inserted ? INSERTED : DUPLICATE)));
+  }
+
+  private Future<Buffer> batchPut(final BinaryProtocol.Reader reader) {
+    // probeId and eventId lengths and payload length
+    final var count = reader.readCount(Short.BYTES + Short.BYTES + Integer.BYTES);
+    final var probeIds = new ArrayList<String>(count);
+    final var eventIds = new ArrayList<String>(count);
+    final var payloads = new ArrayList<Buffer>(count);
+    for (var i = 0; i < count; i++) {
+      probeIds.add(reader.readString());
+      eventIds.add(reader.readString());
+      payloads.add(reader.readPayload());
+    }
+    if (!acceptWrites) {
+      return Future.failedFuture(new IllegalStateException("Writes are only accepted by the leader"));
+    }
+    return ifOwned(probeIds, () -> {
+      final var inserts = new ArrayList<Future<Boolean>>(count);
+      for (var i = 0; i < count; i++) {
+        inserts.add(insert(probeIds.get(i), eventIds.get(i), payloads.get(i)));
+      }
+      // every put is applied or not on its own, so the client learns which ones to retry
+      return CompositeFuture.join(new ArrayList<>(inserts)).transform(done -> {
+        final var response = Buffer.buffer(1 + Integer.BYTES + count).appendByte(OK).appendInt(count);
+        for (var i = 0; i < count; i++) {
+          final var insert = inserts.get(i);
+          if (insert.failed()) {
+            log.warn("Batch put of probe {} failed - {}", probeIds.get(i), insert.cause().getMessage());
+            response.appendByte(FAILED);
+          } else {
+            response.appendByte(insert.result() ? INSERTED : DUPLICATE);
+          }
+        }
+        return Future.succeededFuture(response);
+      });
+    });
+  }
+
+  private Future<Buffer> ifOwned(final List<String> probeIds, final Supplier<Future<Buffer>> request) {
+    if (router != null) {
+      final var ring = router.getRing();
+      for (var probeId : probeIds) {
+        final var owner = ring.ownerOf(probeId);
+        if (!owner.getId().equals(router.getNodeId())) {
+          return Future.failedFuture(new IllegalStateException(
+              "Probe " + probeId + " is owned by node " + owner.getId() + " at " + owner.getHost()));
+        }
+      }
+    }
+    return request.get();
+  }
+
+  /**
+   * Called on the event loop, which hands writes to the WAL in the order requests arrive.
+   */
+  private Future<Boolean> insert(final String probeId, final String eventId, final Buffer payload) {
+    try {
+      return Future.fromCompletionStage(lsmService.insert(probeId, eventId, payload), vertx.getOrCreateContext());
+    } catch (HardLimitBreachedException e) {
+      return Future.failedFuture(e);
+    }
+  }
+
+  private Future<Buffer> get(final BinaryProtocol.Reader reader) {
+    final var probeId = reader.readString();
+    return ifOwned(List.of(probeId), () -> this.<Buffer>blocking(promise -> {
+      try {
+        promise.complete(lsmService.readLatest(probeId));
+      } catch (IOException e) {
+        promise.fail(e);
+      }
+    }).map(value -> value == null
+        ? Buffer.buffer(1).appendByte(NOT_FOUND)
+        : Buffer.buffer(1 + value.length()).appendByte(OK).appendBuffer(value)));
+  }
+
+  private Future<Buffer> multiGet(final BinaryProtocol.Reader reader) {
+    final var count = reader.readCount(Short.BYTES);
+    final var probeIds = new ArrayList<String>(count);
+    for (var i = 0; i < count; i++) {
+      probeIds.add(reader.readString());
+    }
+    return ifOwned(probeIds, () -> blocking(promise -> {
+      var response = Buffer.buffer().appendByte(OK).appendInt(count);
+      try {
+        for (var probeId : probeIds) {
+          var value = lsmService.readLatest(probeId);
+          if (value == null) {
+            response.appendByte((byte) 0);
+          } else {
+            BinaryProtocol.appendPayload(response.appendByte((byte) 1), value);
+          }
+        }
+        promise.complete(response);
+      } catch (IOException e) {
+        promise.fail(e);
+      }
+    }));
+  }
+
+  private <T> Future<T> blocking(final Handler<Promise<T>> blockingCode) {
+    final Promise<T> promise = Promise.promise();
+    executors.executeBlocking(blockingCode, promise);
+    return promise.future();
+  }
+
+  private static Buffer error(final Throwable cause) {
+    var message = String.valueOf(cause.getMessage());
+    return BinaryProtocol.appendString(Buffer.buffer().appendByte(ERROR),
+        message.substring(0, Math.min(message.length(), MAX_ERROR_MESSAGE_LENGTH)));
+  }
+
+  private class Connection {
+    private final NetSocket socket;
+    private final RecordParser parser = RecordParser.newFixed(Integer.BYTES);
+    private final Deque<Future<Buffer>> inFlight = new ArrayDeque<>();
+    private boolean readingLength = true;
+    private boolean paused = false;
+
+    Connection(final NetSocket socket) {
+      this.socket = socket;
+      parser.handler(this::handle);
+      socket.handler(parser);
+      socket.drainHandler(v -> resumeIfReady());
+    }
+
+    private void handle(final Buffer buffer) {
+      if (readingLength) {
+        final var length = buffer.getInt(0);
+        if (length <= 0 || length > MAX_FRAME_BYTES) {
+          log.warn("Closing binary connection {}, invalid frame length {}", socket.remoteAddress(), length);
+          socket.close();
+          return;
+        }
+        readingLength = false;
+        parser.fixedSizeMode(length);
+        return;
+      }
+      readingLength = true;
+      parser.fixedSizeMode(Integer.BYTES);
+
+      final var response = execute(buffer);
+      inFlight.addLast(response);
+      response.onComplete(v -> writeCompleted());
+      if (inFlight.size() >= maxInFlight || socket.writeQueueFull()) {
+        paused = true;
+        parser.pause();
+        socket.pause();
+      }
+    }
+
+    private void writeCompleted() {
+      while (!inFlight.isEmpty() && inFlight.peekFirst().isComplete()) {
+        final var response = inFlight.pollFirst();
+        socket.write(BinaryProtocol.frame(response.succeeded() ? response.result() : error(response.cause())));
+      }
+      resumeIfReady();
+    }
+
+    private void resumeIfReady() {
+      if (paused && inFlight.size() < maxInFlight && !socket.writeQueueFull()) {
+        paused = false;
+        socket.resume();
+        parser.resume();
+      }
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package com.mydb.db.replication;
+
+import com.mydb.db.StateLoader;
+import com.mydb.db.StorageExecutors;
+import com.mydb.db.exception.HardLimitBreachedException;
+import com.mydb.db.services.FileIOService;
+import com.mydb.db.services.LSMService;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tails the leader's WAL and applies every record to the local store through the regular insert
+ * path, so the follower builds its own WAL, memtable and segments. Records are applied in order on a
+ * single thread; reading from the leader is paused while too many wait to be applied. The epoch and
+ * sequence of the last applied record are persisted, so a restarted follower resumes from there.
+ */
+@Slf4j
+public class ReplicationFollower implements Replicator {
+
+  public static final File POSITION_FILE = new File(StateLoader.PATH_TO_HOME + "/data/replication.json");
+  private static final long RECONNECT_DELAY_MS = 1000;
+  private static final long HARD_LIMIT_BACKOFF_MS = 100;
+  private static final long PERSIST_INTERVAL_MS = 1000;
+  private static final int MAX_PENDING_RECORDS = 10000;
+
+  private final Vertx vertx;
+  private final LSMService lsmService;
+  private final FileIOService fileIOService;
+  private final StorageExecutors executors;
+  private final String leaderHost;
+  private final int leaderPort;
+  private final ExecutorService applier = Executors.newSingleThreadExecutor(r -> {
+    var thread = new Thread(r, "replication-applier");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicInteger pending = new AtomicInteger();
+  private Context context;
+  private NetSocket socket;
+  private boolean paused = false;
+  private long receivedEpoch;
+  private long lastReceivedSequence;
+  private volatile boolean connected = false;
+  private volatile boolean resyncing = false;
+  private volatile long leaderSequence = 0;
+  private volatile Position applied;
+  private volatile long appliedLeaderTime = 0;
+  private Position persisted;
+  // storage executors may run writes concurrently, an older position must not overwrite a newer one
+  private boolean persisting = false;
+
+  @Value
+  private static class Position {
+    long epoch;
+    long sequence;
+  }
+
+  public ReplicationFollower(Vertx vertx, LSMService lsmService, FileIOService fileIOService,
+                             StorageExecutors executors, String leaderHost, int leaderPort) {
+    this.vertx = vertx;
+    this.lsmService = lsmService;
+    this.fileIOService = fileIOService;
+    this.executors = executors;
+    this.leaderHost = leaderHost;
+    this.leaderPort = leaderPort;
+    this.applied = loadPosition();
+    this.persisted = applied;
+    this.receivedEpoch = applied.getEpoch();
+    this.lastReceivedSequence = applied.getSequence();
+  }
+
+  private static Position loadPosition() {
+    if (!POSITION_FILE.exists()) {
+      return new Position(0, 0);
+    }
+    try {
+      var position = new JsonObject(Files.readString(POSITION_FILE.toPath()));
+      return new Position(position.getLong("epoch", 0L), position.getLong("sequence", 0L));
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to read the replication position, resyncing from the leader - {}", e.getMessage());
+      return new Position(0, 0);
+    }
+  }
+
+  @Override
+  public void start() {
+    context = vertx.getOrCreateContext();
+    vertx.setPeriodic(PERSIST_INTERVAL_MS, id -> persistPosition());
+    connect();
+  }
+
+  private void connect() {
+    vertx.createNetClient()
+        .connect(leaderPort, leaderHost)
+        .onSuccess(this::follow)
+        .onFailure(e -> {
+          log.warn("Unable to connect to leader {}:{} - {}", leaderHost, leaderPort, e.getMessage());
+          reconnectLater();
+        });
+  }
+
+  private void reconnectLater() {
+    connected = false;
+    vertx.setTimer(RECONNECT_DELAY_MS, id -> connect());
+  }
+
+  private void follow(final NetSocket socket) {
+    this.socket = socket;
+    paused = false;
+    connected = true;
+    var parser = RecordParser.newFixed(HEADER_LENGTH);
+    parser.handler(new FrameHandler(parser));
+    socket.handler(parser);
+    socket.closeHandler(v -> {
+      log.warn("Lost connection to leader {}:{}", leaderHost, leaderPort);
+      reconnectLater();
+    });
+    socket.write(Buffer.buffer(HANDSHAKE_LENGTH).appendLong(receivedEpoch).appendLong(lastReceivedSequence));
+    log.info("Following leader {}:{} from sequence {} of epoch {}",
+        leaderHost, leaderPort, lastReceivedSequence, receivedEpoch);
+  }
+
+  private void apply(final long sequence, final long leaderTime, final Buffer payload) {
+    lastReceivedSequence = sequence;
+    leaderSequence = Math.max(leaderSequence, sequence);
+    final var epoch = receivedEpoch;
+    submit(() -> {
+      insert(payload);
+      applied = new Position(epoch, sequence);
+      appliedLeaderTime = leaderTime;
+    });
+  }
+
+  private void applySnapshot(final Buffer payload) {
+    resyncing = true;
+    submit(() -> insert(payload));
+  }
+
+  /**
+   * The dump is applied, from here on the follower is at the sequence of the leader's epoch.
+   */
+  private void endSnapshot(final long sequence, final long epoch) {
+    receivedEpoch = epoch;
+    lastReceivedSequence = sequence;
+    leaderSequence = sequence;
+    submit(() -> {
+      applied = new Position(epoch, sequence);
+      appliedLeaderTime = System.currentTimeMillis();
+      resyncing = false;
+    });
+  }
+
+  private void submit(final Runnable task) {
+    if (pending.incrementAndGet() >= MAX_PENDING_RECORDS && !paused) {
+      // the leader buffers for us until it deems us too slow and disconnects
+      paused = true;
+      socket.pause();
+    }
+    applier.execute(() -> {
+      try {
+        task.run();
+      } finally {
+        if (pending.decrementAndGet() == MAX_PENDING_RECORDS / 2) {
+          context.runOnContext(v -> resume());
+        }
+      }
+    });
+  }
+
+  private void resume() {
+    if (paused) {
+      paused = false;
+      socket.resume();
+    }
+  }
+
+  private void insert(final Buffer payload) {
+    // the leader ships the probeId the value was written under, the value itself is opaque
+    final var probeIdLength = payload.getInt(0);
+    final var probeId = payload.getString(Integer.BYTES, Integer.BYTES + probeIdLength, StandardCharsets.UTF_8.name());
+    final var value = payload.getBuffer(Integer.BYTES + probeIdLength, payload.length());
+    while (true) {
+      try {
+        lsmService.insert(probeId, value).join();
+        return;
+      } catch (HardLimitBreachedException | CompletionException exception) {
+        if (exception instanceof CompletionException) {
+          // skipping the record would leave this follower diverged, retry it until the WAL recovers
+          log.error("Unable to apply a replicated record, retrying", exception.getCause());
+        }
+        try {
+          Thread.sleep(HARD_LIMIT_BACKOFF_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Only records whose insert completed are covered, so they are as durable as the local WAL.
+   */
+  private void persistPosition() {
+    final var position = applied;
+    if (persisting || position.equals(persisted)) {
+      return;
+    }
+    persisting = true;
+    executors.<Void>executeBlocking(promise -> {
+      var json = new JsonObject().put("epoch", position.getEpoch()).put("sequence", position.getSequence());
+      try {
+        fileIOService.writeAtomically(POSITION_FILE, json.encode().getBytes(StandardCharsets.UTF_8));
+        promise.complete();
+      } catch (IOException e) {
+        promise.fail(e);
+      }
+    }, result -> {
+      persisting = false;
+      if (result.succeeded()) {
+        persisted = position;
+      } else {
+        log.warn("Unable to persist the replication position - {}", result.cause().getMessage());
+      }
+    });
+  }
+
+  @Override
+  public JsonObject status() {
+    final var position = applied;
+    final var status = new JsonObject()
+        .put("role", "follower")
+        .put("leader", leaderHost + ":" + leaderPort)
+        .put("connected", connected)
+        .put("resyncing", resyncing)
+        .put("epoch", position.getEpoch())
+        .put("leaderSequence", leaderSequence)
+        .put("appliedSequence", position.getSequence());
+    if (!resyncing) {
+      final var lagRecords = Math.max(0, leaderSequence - position.getSequence());
+      status.put("lagRecords", lagRecords)
+          .put("lagMillis", lagRecords == 0 ? 0 : System.currentTimeMillis() - appliedLeaderTime);
+    }
+    return status;
+  }
+
+  private class FrameHandler implements Handler<Buffer> {
+    private final RecordParser parser;
+    private Buffer header;
+
+    FrameHandler(RecordParser parser) {
+      this.parser = parser;
+    }
+
+    @Override
+    public void handle(final Buffer frame) {
+      if (header == null) {
+        final var type = frame.getByte(0);
+        final var length = frame.getInt(HEADER_LENGTH - Integer.BYTES);
+        if (type == HEARTBEAT) {
+          leaderSequence = Math.max(leaderSequence, frame.getLong(1));
+        } else if (length == 0) {
+          handle(frame, Buffer.buffer());
+        } else {
+          header = frame;
+          parser.fixedSizeMode(length);
+        }
+        return;
+      }
+      handle(header, frame);
+      header = null;
+      parser.fixedSizeMode(HEADER_LENGTH);
+    }
+
+    private void handle(final Buffer header, final Buffer payload) {
+      final var sequence = header.getLong(1);
+      switch (header.getByte(0)) {
+        case SNAPSHOT -> applySnapshot(payload);
+        case SNAPSHOT_END -> endSnapshot(sequence, payload.getLong(0));
+        default -> apply(sequence, header.getLong(1 + Long.BYTES), payload);
+      }
+    }
+  }
+}
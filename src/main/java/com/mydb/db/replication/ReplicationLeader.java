@@ -0,0 +1,238 @@
+package com.mydb.db.replication;
+
+import com.mydb.db.StorageExecutors;
+import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.services.LSMService;
+import com.mydb.db.services.WALService;
+import io.vertx.core.Context;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams every WAL record to connected followers. A follower connects, sends the epoch and last
+ * sequence it received and is first sent the missing records from a bounded in-memory backlog, then
+ * the live tail. A follower of another epoch, or one behind the backlog, gets a full resync instead.
+ * All state is confined to the verticle's context.
+ */
+@Slf4j
+public class ReplicationLeader implements Replicator {
+
+  private static final long HEARTBEAT_INTERVAL_MS = 1000;
+  private static final int RESYNC_BATCH_PROBES = 1000;
+
+  private final Vertx vertx;
+  private final WALService walService;
+  private final MemTableWrapper memTable;
+  private final LSMService lsmService;
+  private final StorageExecutors executors;
+  private final int port;
+  private final int backlogRecords;
+  private final Deque<ImmutablePair<Long, Buffer>> backlog = new ArrayDeque<>();
+  private final Set<NetSocket> followers = new HashSet<>();
+  private final Set<NetSocket> resyncing = new HashSet<>();
+  private long latestSequence = 0;
+
+  public ReplicationLeader(Vertx vertx, WALService walService, MemTableWrapper memTable, LSMService lsmService,
+                           StorageExecutors executors, int port, int backlogRecords) {
+    this.vertx = vertx;
+    this.walService = walService;
+    this.memTable = memTable;
+    this.lsmService = lsmService;
+    this.executors = executors;
+    this.port = port;
+    this.backlogRecords = backlogRecords;
+  }
+
+  @Override
+  public void start() {
+    final Context context = vertx.getOrCreateContext();
+    memTable.addChangeListener((sequence, probeId, payload) -> {
+      var frame = encode(RECORD, sequence, record(probeId, payload));
+      context.runOnContext(v -> publish(sequence, frame));
+    });
+    vertx.setPeriodic(HEARTBEAT_INTERVAL_MS, id -> heartbeat());
+    vertx.createNetServer()
+        .connectHandler(this::accept)
+        .listen(port)
+        .onSuccess(server -> log.info("Replication leader listening on port - {}", port))
+        .onFailure(e -> log.error("Failed to start replication leader", e));
+  }
+
+  private void accept(final NetSocket socket) {
+    socket.handler(RecordParser.newFixed(HANDSHAKE_LENGTH,
+        handshake -> subscribe(socket, handshake.getLong(0), handshake.getLong(Long.BYTES))));
+    socket.closeHandler(v -> {
+      followers.remove(socket);
+      resyncing.remove(socket);
+    });
+  }
+
+  private void subscribe(final NetSocket socket, final long epoch, final long lastReceived) {
+    if (followers.contains(socket) || resyncing.contains(socket)) {
+      return;
+    }
+    if (epoch != walService.getEpoch() || lastReceived > latestSequence || !inBacklog(lastReceived)) {
+      resync(socket);
+      return;
+    }
+    sendBacklog(socket, lastReceived);
+    followers.add(socket);
+    log.info("Follower {} subscribed from sequence {}", socket.remoteAddress(), lastReceived);
+  }
+
+  /**
+   * Whether every record after the sequence is still in the backlog.
+   */
+  private boolean inBacklog(final long sequence) {
+    return sequence == latestSequence || (!backlog.isEmpty() && backlog.getFirst().left <= sequence + 1);
+  }
+
+  private void sendBacklog(final NetSocket socket, final long from) {
+    backlog.stream().filter(record -> record.left > from).forEach(record -> socket.write(record.right));
+  }
+
+  /**
+   * Sends the latest value of every probe, read after the current sequence, then the records
+   * written meanwhile from the backlog, which overwrite any older value the dump picked up. The
+   * follower only adopts the epoch and sequence once it has applied the whole dump, so an
+   * interrupted resync starts over.
+   */
+  private void resync(final NetSocket socket) {
+    final var from = latestSequence;
+    log.warn("Follower {} cannot be caught up from the backlog, resyncing it from sequence {} of epoch {}",
+        socket.remoteAddress(), from, walService.getEpoch());
+    resyncing.add(socket);
+    final Promise<Void> dumped = Promise.promise();
+    executors.<Iterator<String>>executeBlocking(
+        promise -> promise.complete(lsmService.getProbeIds(probeId -> true).iterator()),
+        probeIds -> {
+          if (probeIds.failed()) {
+            dumped.fail(probeIds.cause());
+          } else {
+            sendSnapshot(socket, from, probeIds.result(), dumped);
+          }
+        });
+    dumped.future()
+        .onSuccess(v -> {
+          resyncing.remove(socket);
+          if (!inBacklog(from)) {
+            log.warn("Records written while resyncing follower {} left the backlog, disconnecting it",
+                socket.remoteAddress());
+            socket.close();
+            return;
+          }
+          socket.write(encode(SNAPSHOT_END, from, Buffer.buffer(Long.BYTES).appendLong(walService.getEpoch())));
+          sendBacklog(socket, from);
+          followers.add(socket);
+          log.info("Follower {} resynced, streaming from sequence {}", socket.remoteAddress(), from);
+        })
+        .onFailure(e -> {
+          resyncing.remove(socket);
+          log.warn("Resync of follower {} failed - {}", socket.remoteAddress(), e.getMessage());
+          socket.close();
+        });
+  }
+
+  private void sendSnapshot(final NetSocket socket, final long from, final Iterator<String> probeIds,
+                            final Promise<Void> dumped) {
+    if (!resyncing.contains(socket)) {
+      dumped.tryFail("follower disconnected");
+      return;
+    }
+    if (socket.writeQueueFull()) {
+      socket.drainHandler(v -> {
+        socket.drainHandler(null);
+        sendSnapshot(socket, from, probeIds, dumped);
+      });
+      return;
+    }
+    if (!probeIds.hasNext()) {
+      dumped.tryComplete();
+      return;
+    }
+    executors.<List<Buffer>>executeBlocking(promise -> promise.complete(readBatch(from, probeIds)), batch -> {
+      if (batch.failed()) {
+        dumped.tryFail(batch.cause());
+        return;
+      }
+      batch.result().forEach(socket::write);
+      sendSnapshot(socket, from, probeIds, dumped);
+    });
+  }
+
+  private List<Buffer> readBatch(final long from, final Iterator<String> probeIds) {
+    final var frames = new ArrayList<Buffer>(RESYNC_BATCH_PROBES);
+    try {
+      while (probeIds.hasNext() && frames.size() < RESYNC_BATCH_PROBES) {
+        final var probeId = probeIds.next();
+        final var value = lsmService.readLatest(probeId);
+        if (value != null) {
+          frames.add(encode(SNAPSHOT, from, record(probeId, value)));
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return frames;
+  }
+
+  private void publish(final long sequence, final Buffer frame) {
+    latestSequence = Math.max(latestSequence, sequence);
+    backlog.addLast(ImmutablePair.of(sequence, frame));
+    while (backlog.size() > backlogRecords) {
+      backlog.removeFirst();
+    }
+    followers.forEach(follower -> send(follower, frame));
+  }
+
+  private void heartbeat() {
+    var frame = encode(HEARTBEAT, latestSequence, Buffer.buffer());
+    followers.forEach(follower -> send(follower, frame));
+  }
+
+  private void send(final NetSocket follower, final Buffer frame) {
+    if (follower.writeQueueFull()) {
+      // the follower reconnects and catches up from the backlog, or is resynced
+      log.warn("Follower {} is too slow, disconnecting", follower.remoteAddress());
+      follower.close();
+      return;
+    }
+    follower.write(frame);
+  }
+
+  private Buffer encode(final byte type, final long sequence, final Buffer payload) {
+    return Buffer.buffer(HEADER_LENGTH + payload.length())
+        .appendByte(type)
+        .appendLong(sequence)
+        .appendLong(System.currentTimeMillis())
+        .appendInt(payload.length())
+        .appendBuffer(payload);
+  }
+
+  @Override
+  public JsonObject status() {
+    return new JsonObject()
+        .put("role", "leader")
+        .put("epoch", walService.getEpoch())
+        .put("sequence", latestSequence)
+        .put("followers", followers.size())
+        .put("resyncingFollowers", resyncing.size())
+        .put("backlogRecords", backlog.size());
+  }
+}
@@ -0,0 +1,36 @@
+package com.mydb.db.replication;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+
+public interface Replicator {
+
+  byte RECORD = 0;
+  byte HEARTBEAT = 1;
+  /** latest value of a probe sent during a full resync */
+  byte SNAPSHOT = 2;
+  /** end of a full resync, the payload is the leader's epoch */
+  byte SNAPSHOT_END = 3;
+  /** type, sequence, leader write time, payload length */
+  int HEADER_LENGTH = 1 + Long.BYTES + Long.BYTES + Integer.BYTES;
+  /** epoch and last sequence the follower received */
+  int HANDSHAKE_LENGTH = Long.BYTES + Long.BYTES;
+
+  /**
+   * Payload of a RECORD or SNAPSHOT frame: the probeId length, the probeId and the value, which is
+   * opaque and stored under the probeId as is.
+   */
+  static Buffer record(final String probeId, final Buffer value) {
+    var probeIdBytes = probeId.getBytes(StandardCharsets.UTF_8);
+    return Buffer.buffer(Integer.BYTES + probeIdBytes.length + value.length())
+        .appendInt(probeIdBytes.length)
+        .appendBytes(probeIdBytes)
+        .appendBuffer(value);
+  }
+
+  void start();
+
+  JsonObject status();
+}
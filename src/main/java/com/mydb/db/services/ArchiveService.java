@@ -0,0 +1,151 @@
+package com.mydb.db.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mydb.db.archive.ArchiveStore;
+import com.mydb.db.entity.SegmentIndex;
+import com.mydb.db.entity.SegmentMetadata;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Moves segments to the archive tier and reads values back from it. A segment is archived as
+ * independently compressed blocks of {@link #BLOCK_SIZE} bytes; the block table stays in the segment
+ * index, so a read fetches and inflates only the blocks holding the value. Inflated blocks are kept
+ * in a cache bounded by their size.
+ */
+public class ArchiveService {
+
+  public static final int BLOCK_SIZE = 64 * 1024;
+
+  private final ArchiveStore store;
+  private final Cache<String, byte[]> blocks;
+
+  public ArchiveService(final ArchiveStore store, final long blockCacheBytes) {
+    this.store = store;
+    this.blocks = CacheBuilder.newBuilder()
+        .maximumWeight(blockCacheBytes)
+        .weigher((String key, byte[] block) -> block.length)
+        .build();
+  }
+
+  /**
+   * Compresses the segment into the archive and returns its index pointing there. The local file is
+   * left in place for reads still using it.
+   */
+  public SegmentIndex archive(final SegmentIndex segmentIndex) throws IOException {
+    final var segment = segmentIndex.getSegment();
+    final var compressed = new File(segment.getSegmentPath() + ".archive");
+    try {
+      final var blockTable = compress(new File(segment.getSegmentPath()), compressed);
+      store.put(segment.getSegmentName(), compressed);
+      return new SegmentIndex(segment, segmentIndex.getSegmentIndex(), segmentIndex.getMaxWriteTime(), blockTable);
+    } finally {
+      compressed.delete();
+    }
+  }
+
+  private long[] compress(final File source, final File target) throws IOException {
+    final var offsets = new ArrayList<Long>();
+    offsets.add(0L);
+    final var deflater = new Deflater();
+    try (var in = new FileInputStream(source);
+         var out = new BufferedOutputStream(new FileOutputStream(target))) {
+      final var block = new byte[BLOCK_SIZE];
+      final var buffer = new byte[BLOCK_SIZE];
+      var position = 0L;
+      int read;
+      while ((read = in.readNBytes(block, 0, BLOCK_SIZE)) > 0) {
+        deflater.reset();
+        deflater.setInput(block, 0, read);
+        deflater.finish();
+        while (!deflater.finished()) {
+          final var length = deflater.deflate(buffer);
+          out.write(buffer, 0, length);
+          position += length;
+        }
+        offsets.add(position);
+      }
+    } finally {
+      deflater.end();
+    }
+    return offsets.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  public Buffer read(final SegmentIndex segmentIndex, final SegmentMetadata metadata) throws IOException {
+    final var end = metadata.getOffset() + metadata.getSize();
+    final var data = Buffer.buffer((int) metadata.getSize());
+    var position = metadata.getOffset();
+    while (position < end) {
+      final var blockNumber = (int) (position / BLOCK_SIZE);
+      final var blockStart = (long) blockNumber * BLOCK_SIZE;
+      final var block = getBlock(segmentIndex, blockNumber);
+      final var from = (int) (position - blockStart);
+      final var to = (int) Math.min(block.length, end - blockStart);
+      if (to <= from) {
+        throw new IOException("Archived segment " + segmentIndex.getSegment().getSegmentName() + " is truncated");
+      }
+      data.appendBytes(block, from, to - from);
+      position += to - from;
+    }
+    return data;
+  }
+
+  private byte[] getBlock(final SegmentIndex segmentIndex, final int blockNumber) throws IOException {
+    final var name = segmentIndex.getSegment().getSegmentName();
+    try {
+      return blocks.get(name + "/" + blockNumber, () -> fetch(name, segmentIndex.getArchiveBlocks(), blockNumber));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private byte[] fetch(final String name, final long[] blockTable, final int blockNumber) throws IOException {
+    if (blockNumber + 1 >= blockTable.length) {
+      throw new IOException("Block " + blockNumber + " is beyond the end of archived segment " + name);
+    }
+    final var compressed = store.read(
+        name, blockTable[blockNumber], (int) (blockTable[blockNumber + 1] - blockTable[blockNumber]));
+    final var inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      final var block = new byte[BLOCK_SIZE];
+      var length = 0;
+      while (!inflater.finished() && length < BLOCK_SIZE) {
+        final var inflated = inflater.inflate(block, length, BLOCK_SIZE - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Block " + blockNumber + " of archived segment " + name + " is corrupt");
+        }
+        length += inflated;
+      }
+      return length == BLOCK_SIZE ? block : Arrays.copyOf(block, length);
+    } catch (DataFormatException e) {
+      throw new IOException("Block " + blockNumber + " of archived segment " + name + " is corrupt", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Deletes the archived copy of a segment that is no longer read.
+   */
+  public void delete(final SegmentIndex segmentIndex) throws IOException {
+    final var name = segmentIndex.getSegment().getSegmentName();
+    store.delete(name);
+    blocks.asMap().keySet().removeIf(key -> key.startsWith(name + "/"));
+  }
+}
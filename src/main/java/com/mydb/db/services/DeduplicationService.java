@@ -0,0 +1,94 @@
+package com.mydb.db.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.mydb.db.DeduplicationConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Remembers recently ingested (probeId, eventId) pairs so retried PUTs are dropped before they reach
+ * the WAL. Pairs are kept as 64 bit hashes with the result of their insert, for a bounded time window
+ * and a bounded count.
+ */
+public class DeduplicationService {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final boolean enabled;
+  private final Cache<Long, CompletableFuture<Boolean>> seen;
+  private final Counter duplicatesDropped;
+
+  public DeduplicationService(final DeduplicationConfig config, final MeterRegistry registry) {
+    this.enabled = config.isEnabled();
+    this.seen = CacheBuilder.newBuilder()
+        .expireAfterWrite(config.getWindowSeconds(), TimeUnit.SECONDS)
+        .maximumSize(config.getMaxEntries())
+        .build();
+    this.duplicatesDropped = Counter.builder("mydb.ingest.duplicates.dropped")
+        .description("PUTs dropped because their eventId was already ingested")
+        .register(registry);
+  }
+
+  /**
+   * Runs the insert the first time the event is seen within the window. A duplicate completes with
+   * false once the first insert succeeded, waiting for it if it is still in flight; if the first
+   * insert failed the event is forgotten and the duplicate inserts it itself. Events without an
+   * eventId, null or empty, are always inserted.
+   */
+  public CompletableFuture<Boolean> ingest(final String probeId, final String eventId,
+                                           final Supplier<CompletableFuture<Boolean>> insert) {
+    if (!enabled || eventId == null || eventId.isEmpty()) {
+      return insert.get();
+    }
+    final var key = key(probeId, eventId);
+    final var claim = new CompletableFuture<Boolean>();
+    final var first = seen.asMap().putIfAbsent(key, claim);
+    if (first != null) {
+      return first.handle((inserted, failure) -> failure).thenCompose(failure -> {
+        if (failure != null) {
+          return ingest(probeId, eventId, insert);
+        }
+        duplicatesDropped.increment();
+        return CompletableFuture.completedFuture(false);
+      });
+    }
+    final CompletableFuture<Boolean> inserted;
+    try {
+      inserted = insert.get();
+    } catch (RuntimeException e) {
+      fail(key, claim, e);
+      throw e;
+    }
+    inserted.whenComplete((result, failure) -> {
+      if (failure != null) {
+        fail(key, claim, failure);
+      } else {
+        claim.complete(result);
+      }
+    });
+    return claim;
+  }
+
+  private void fail(final long key, final CompletableFuture<Boolean> claim, final Throwable failure) {
+    // forgotten before waiting duplicates are woken up, so one of them can claim the event again
+    seen.asMap().remove(key, claim);
+    claim.completeExceptionally(failure);
+  }
+
+  private long key(final String probeId, final String eventId) {
+    return HASH.newHasher()
+        .putString(probeId, StandardCharsets.UTF_8)
+        .putInt(probeId.length())
+        .putString(eventId, StandardCharsets.UTF_8)
+        .hash()
+        .asLong();
+  }
+}
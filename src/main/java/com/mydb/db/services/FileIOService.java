@@ -1,14 +1,15 @@
 package com.mydb.db.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mydb.db.DurabilityConfig;
 import com.mydb.db.SegmentConfig;
+import com.mydb.db.entity.PackedSegmentIndex;
 import com.mydb.db.entity.Segment;
 import com.mydb.db.entity.SegmentIndex;
 import com.mydb.db.entity.SegmentMetadata;
 import io.vertx.core.buffer.Buffer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -16,66 +17,44 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.util.SortedMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 
-import static java.util.concurrent.CompletableFuture.supplyAsync;
-
 @Slf4j
 public class FileIOService {
 
-  public static final String PATH_TO_HOME = System.getProperty("user.home");
-  public static final String DEFAULT_WAL_FILE_PATH = PATH_TO_HOME + "/wal/wal";
-  public static final String STAGED_WAL_FILE_PATH = PATH_TO_HOME + "/wal/wal_backup";
-  public static final File WAL_FILE = new File(DEFAULT_WAL_FILE_PATH);
-  public static final File STAGED_WAL_FILE = new File(STAGED_WAL_FILE_PATH);
-  public static final byte[] DELIMITER = "----".getBytes(StandardCharsets.UTF_8);
   public static final ObjectMapper mapper = new ObjectMapper();
 
-  public SegmentIndex persist(
-      final Segment segment,
-      final Deque<String> probeIds,
-      final Map<String, Deque<Buffer>> memTable,
-      final ImmutablePair<Integer, Integer> range
-  ) {
+  private final DurabilityConfig durability;
+
+  public FileIOService(final DurabilityConfig durability) {
+    this.durability = durability;
+  }
+
+  public SegmentIndex persist(final Segment segment, final SortedMap<String, Buffer> values) throws IOException {
     final Map<String, SegmentMetadata> index = new HashMap<>();
+    // the flush time bounds the write time of every value from above, so retention never drops early
+    final var writeTime = System.currentTimeMillis();
     var segmentBuffer = Buffer.buffer();
-    probeIds.stream().toList().subList(range.left, range.right).stream().sorted()
-        .forEach(p -> {
-          try {
-            var list = memTable.getOrDefault(p, null);
-            if (list != null) {
-              var payload = list.removeFirst();
-              index.put(p, new SegmentMetadata(segmentBuffer.length(), payload.length()));
-              segmentBuffer.appendBuffer(payload);
-            }
-          } catch (RuntimeException ex) {
-            ex.printStackTrace();
-          }
-        });
-    File segmentFile = new File(segment.getSegmentPath());
-    try {
-      FileUtils.writeByteArrayToFile(segmentFile, segmentBuffer.getBytes(), true);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-    return new SegmentIndex(segment, index);
+    values.forEach((probeId, payload) -> {
+      index.put(probeId, new SegmentMetadata(segmentBuffer.length(), payload.length(), writeTime));
+      segmentBuffer.appendBuffer(payload);
+    });
+    writeAtomically(new File(segment.getSegmentPath()), segmentBuffer.getBytes());
+    return new SegmentIndex(segment, PackedSegmentIndex.of(index), writeTime);
   }
 
-  public void persistConfig(final String configPath, final SegmentConfig config) {
-    try {
-      var json = mapper.writeValueAsString(config);
-      FileOutputStream outputStream = new FileOutputStream(configPath);
-      outputStream.write(json.getBytes());
-      outputStream.close();
-    } catch (IOException exception) {
-      exception.printStackTrace();
-    }
+  public void persistConfig(final String configPath, final SegmentConfig config) throws IOException {
+    var json = mapper.writeValueAsString(config);
+    writeAtomically(new File(configPath), json.getBytes());
   }
 
   public byte[] readBytes(final String path, final SegmentMetadata metadata) throws IOException {
@@ -111,38 +90,45 @@ public class FileIOService {
     }
   }
 
-  public Optional<String> getPayload(final String path, final SegmentMetadata metadata) {
-    try {
-      var in = readBytes(path, metadata);
-      return Optional.of(new String(in));
-    } catch (IOException e) {
-      e.printStackTrace();
-      return Optional.empty();
+  public void persistIndices(final String newBackupPath, final byte[] indicesBytes) throws IOException {
+    writeAtomically(new File(newBackupPath), indicesBytes);
+  }
+
+  /**
+   * Writes the file next to its target and renames it into place, so readers and crash recovery only
+   * ever see a complete file.
+   */
+  public void writeAtomically(final File target, final byte[] bytes) throws IOException {
+    var temp = getTempFile(target);
+    try (var outputStream = new FileOutputStream(temp)) {
+      outputStream.write(bytes);
+      sync(outputStream);
     }
+    commit(temp, target);
   }
 
-  public boolean persistIndices(final String newBackupPath, final byte[] indicesBytes) {
-    try {
-      var newIndexFile = new File(newBackupPath);
-      FileUtils.writeByteArrayToFile(newIndexFile, indicesBytes);
-    } catch (IOException | RuntimeException ex) {
-      ex.printStackTrace();
+  public File getTempFile(final File target) throws IOException {
+    FileUtils.forceMkdirParent(target);
+    return new File(target.getPath() + ".tmp");
+  }
+
+  public void sync(final FileOutputStream outputStream) throws IOException {
+    if (durability.syncFiles()) {
+      outputStream.getFD().sync();
     }
-    return true;
   }
 
-  public CompletableFuture<Boolean> writeAheadLog(Buffer payload) {
-    var buffer = payload.appendBytes(DELIMITER);
-    return supplyAsync(() -> write(buffer.getBytes()));
+  public void commit(final File temp, final File target) throws IOException {
+    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    if (durability.syncFiles()) {
+      syncDirectory(target.getParentFile());
+    }
   }
 
-  private boolean write(byte[] bytes) {
-    try {
-      FileUtils.writeByteArrayToFile(WAL_FILE, bytes, true);
-    } catch (IOException e) {
-      e.printStackTrace();
+  public static void syncDirectory(final File directory) throws IOException {
+    try (var channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
     }
-    return true;
   }
 
 }
@@ -1,24 +1,32 @@
 package com.mydb.db.services;
 
+import com.mydb.db.ArchiveConfig;
+import com.mydb.db.RetentionConfig;
 import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.entity.ReadResult;
+import com.mydb.db.entity.ReadView;
 import com.mydb.db.entity.SegmentIndex;
+import com.mydb.db.entity.SegmentMetadata;
 import com.mydb.db.exception.HardLimitBreachedException;
-import com.mydb.db.exception.ProbeNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.vertx.core.buffer.Buffer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.springframework.util.SerializationUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.Predicate;
 
 @Slf4j
 public class LSMService {
@@ -27,61 +35,139 @@ public class LSMService {
   private final FileIOService fileIOService;
   private final SegmentService segmentService;
   private final MergeService mergeService;
-  private final Deque<SegmentIndex> indices;
+  private final ReadViewService readViews;
   private final MemTableWrapper memTable;
+  private final DeduplicationService deduplicationService;
+  private final RetentionConfig retention;
+  private final ArchiveConfig archiveConfig;
+  private final ArchiveService archiveService;
+  private final NegativeLookupCache negativeCache;
+  private final Counter misses;
 
   public LSMService(MemTableWrapper memTableWrapper,
-                    Deque<SegmentIndex> indices, FileIOService fileIOService,
-                    SegmentService segmentService, MergeService mergeService
+                    ReadViewService readViews, FileIOService fileIOService,
+                    SegmentService segmentService, MergeService mergeService,
+                    DeduplicationService deduplicationService, RetentionConfig retention,
+                    ArchiveConfig archiveConfig, ArchiveService archiveService,
+                    NegativeLookupCache negativeCache, MeterRegistry registry
   ) {
     this.fileIOService = fileIOService;
     this.segmentService = segmentService;
     this.mergeService = mergeService;
-    this.indices = indices;
+    this.readViews = readViews;
     this.memTable = memTableWrapper;
+    this.deduplicationService = deduplicationService;
+    this.retention = retention;
+    this.archiveConfig = archiveConfig;
+    this.archiveService = archiveService;
+    this.negativeCache = negativeCache;
+    this.misses = Counter.builder("mydb.read.misses")
+        .description("Reads of probes without a value")
+        .register(registry);
+    memTableWrapper.addChangeListener((sequence, probeId, payload) -> negativeCache.invalidate(probeId));
   }
 
-  public void merge() throws IOException {
-//    log.info("**************\nStarting scheduled merging!\n******************");
-    final var segmentEnumeration = getSegmentIndexEnumeration();
-    var segmentIndexCountToBeRemoved = segmentEnumeration.size();
-    var mergeSegment = segmentService.getNewSegment();
-    final var validSegmentEnumeration = segmentEnumeration.stream()
-        .filter(i -> new File(segmentService.getPathForSegment(i.getRight().getSegment().getSegmentName())).exists())
-        .toList();
-    if (validSegmentEnumeration.size() > 10) {
-      var mergedSegmentIndex = mergeService.merge(validSegmentEnumeration, mergeSegment.getSegmentPath());
+  /**
+   * Values written before this time are expired, 0 if data is kept forever.
+   */
+  private long expiredBefore() {
+    return retention.isEnabled() ? System.currentTimeMillis() - retention.getTtlSeconds() * 1000 : 0;
+  }
 
-      indices.addLast(new SegmentIndex(mergeSegment, mergedSegmentIndex));
-      IntStream.range(0, segmentIndexCountToBeRemoved)
-          .forEach(x -> indices.removeAll(getIndicesForMergedSegments(validSegmentEnumeration)));
+  public boolean hasExpiredSegments() {
+    final var expiredBefore = expiredBefore();
+    return readViews.getSegments().stream().anyMatch(s -> s.getMaxWriteTime() < expiredBefore);
+  }
 
-      fileIOService.persistIndices(mergeSegment.getBackupPath(), SerializationUtils.serialize(indices));
-      deleteMergedSegments(segmentEnumeration);
+  /**
+   * Removes segments whose values are all expired without rewriting anything; their files are
+   * deleted once no read uses them.
+   */
+  public void dropExpiredSegments() throws IOException {
+    final var expiredBefore = expiredBefore();
+    final var expired = readViews.getSegments().stream()
+        .filter(s -> s.getMaxWriteTime() < expiredBefore)
+        .toList();
+    if (expired.isEmpty()) {
+      return;
     }
+    final Set<SegmentIndex> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+    dropped.addAll(expired);
+    readViews.publish(segments -> segments.stream().filter(s -> !dropped.contains(s)).toList());
+    readViews.retire(expired);
+    readViews.persistIndices();
+    log.info("Dropped {} expired segments", expired.size());
   }
 
-  private List<SegmentIndex> getIndicesForMergedSegments(
-      List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentEnumeration) {
-    return segmentEnumeration.stream().map(ImmutablePair::getRight).collect(Collectors.toList());
+  public boolean hasColdSegments() {
+    return !getColdSegments().isEmpty();
   }
 
-  private void deleteMergedSegments(
-      final List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentIndexEnumeration) {
-    segmentIndexEnumeration.parallelStream().map(x -> x.getRight().getSegment())
-        .forEach(segment -> {
-          try {
-            new File(segment.getBackupPath()).delete();
-            new File(segment.getSegmentPath()).delete();
-          } catch (RuntimeException exception) {
-            exception.printStackTrace();
-          }
-        });
+  /**
+   * Local segments old enough to be archived. Only the oldest segments qualify, so archived segments
+   * always stay behind all local ones in the list.
+   */
+  private List<SegmentIndex> getColdSegments() {
+    if (!archiveConfig.isEnabled()) {
+      return List.of();
+    }
+    final var archiveBefore = System.currentTimeMillis() - archiveConfig.getAgeSeconds() * 1000;
+    final var segments = readViews.getSegments();
+    final var cold = new ArrayList<SegmentIndex>();
+    for (var i = segments.size() - 1; i >= 0 && segments.get(i).getMaxWriteTime() < archiveBefore; i--) {
+      if (!segments.get(i).isArchived()) {
+        cold.add(segments.get(i));
+      }
+    }
+    return cold;
   }
 
-  public List<ImmutablePair<Enumeration<String>, SegmentIndex>> getSegmentIndexEnumeration() {
-    return indices.stream()
-        .map(j -> ImmutablePair.of(Collections.enumeration(j.getSegmentIndex().keySet()), j)).toList();
+  /**
+   * Moves the cold segments to the archive tier. Their indices stay in memory; the local files are
+   * deleted once no read uses them.
+   */
+  public void archiveColdSegments() throws IOException {
+    final var cold = getColdSegments();
+    if (cold.isEmpty()) {
+      return;
+    }
+    final Map<SegmentIndex, SegmentIndex> archived = new IdentityHashMap<>();
+    for (var segment : cold) {
+      archived.put(segment, archiveService.archive(segment));
+    }
+    readViews.publish(segments -> segments.stream().map(s -> archived.getOrDefault(s, s)).toList());
+    readViews.retire(cold);
+    readViews.persistIndices();
+    log.info("Archived {} segments", cold.size());
+  }
+
+  /**
+   * Merges all local segments and returns the merge outputs, none if there was nothing to merge.
+   */
+  public List<SegmentIndex> merge() throws IOException, InterruptedException {
+    final var inputs = readViews.getSegments().stream()
+        .filter(i -> !i.isArchived())
+        .filter(i -> new File(segmentService.getPathForSegment(i.getSegment().getSegmentName())).exists())
+        .toList();
+    if (inputs.size() > 1) {
+      final var outputs = mergeService.merge(inputs, expiredBefore());
+
+      // flushes add segments concurrently, publish all merge outputs as one step, in front of the
+      // archived segments which are older than any input
+      final Set<SegmentIndex> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+      merged.addAll(inputs);
+      readViews.publish(segments -> {
+        var next = new ArrayList<SegmentIndex>(segments.size());
+        segments.stream().filter(s -> !merged.contains(s) && !s.isArchived()).forEach(next::add);
+        next.addAll(outputs);
+        segments.stream().filter(SegmentIndex::isArchived).forEach(next::add);
+        return next;
+      });
+      readViews.retire(inputs);
+      readViews.persistIndices();
+      return outputs;
+    }
+    return List.of();
   }
 
   public CompletableFuture<Boolean> insert(final String probeId, final Buffer payload) {
@@ -92,26 +178,133 @@ public class LSMService {
     return memTable.persist(probeId, payload);
   }
 
-  public String getData(String probeId) throws ProbeNotFoundException {
+  /**
+   * Inserts the event unless the same eventId was already ingested for the probe, in which case the
+   * returned future completes with false.
+   */
+  public CompletableFuture<Boolean> insert(final String probeId, final String eventId, final Buffer payload) {
+    return deduplicationService.ingest(probeId, eventId, () -> insert(probeId, payload));
+  }
+
+  /**
+   * Latest value of the probe, {@link ReadResult#miss()} if there is none.
+   */
+  public ReadResult getLatest(final String probeId) throws IOException {
+    final var version = negativeCache.version(probeId);
     var data = memTable.get(probeId);
     if (data == null) {
-      var dataFromSegments = getDataFromSegments(probeId);
-      if (dataFromSegments == null) {
-        throw new ProbeNotFoundException(String.format("Probe id - %s not found!", probeId));
+      if (negativeCache.isKnownMiss(probeId)) {
+        misses.increment();
+        return ReadResult.miss();
+      }
+      // a flush publishes its segment before dropping the values from the memtable, so a view taken
+      // after a memtable miss holds every value the memtable no longer has
+      var view = readViews.acquire();
+      var location = getLocationInSegments(view, probeId);
+      if (location.isEmpty()) {
+        view.release();
+        negativeCache.recordMiss(probeId, version);
+        misses.increment();
+        return ReadResult.miss();
+      }
+      final var segment = location.get().left;
+      if (segment.isArchived()) {
+        // rehydrated from the block cache or the archive, no segment file is read past this point
+        try {
+          return ReadResult.inMemory(archiveService.read(segment, location.get().right));
+        } finally {
+          view.release();
+        }
+      }
+      return ReadResult.onDisk(
+          segmentService.getPathForSegment(segment.getSegment().getSegmentName()), location.get().right, view);
+    }
+    return ReadResult.inMemory(data);
+  }
+
+  private Optional<ImmutablePair<SegmentIndex, SegmentMetadata>> getLocationInSegments(
+      final ReadView view, final String probeId) {
+    final var expiredBefore = expiredBefore();
+    final var key = probeId.getBytes(StandardCharsets.UTF_8);
+    for (var segment : view.getSegments()) {
+      if (segment.getMaxWriteTime() < expiredBefore) {
+        continue;
+      }
+      final var metadata = segment.find(key);
+      if (metadata != null) {
+        // the newest value is expired until the next merge or drop removes it, older ones are too
+        return metadata.getWriteTime() >= expiredBefore
+            ? Optional.of(ImmutablePair.of(segment, metadata))
+            : Optional.empty();
       }
-      return dataFromSegments;
     }
-    return data.toString();
+    return Optional.empty();
   }
 
-  private String getDataFromSegments(final String probeId) {
+  /**
+   * Latest value of the probe read into memory, null if there is none.
+   */
+  public Buffer readLatest(final String probeId) throws IOException {
+    final var result = getLatest(probeId);
+    if (result.isMiss()) {
+      return null;
+    }
+    if (result.isInMemory()) {
+      return result.getData();
+    }
+    try {
+      return readBytes(result);
+    } finally {
+      result.release();
+    }
+  }
 
-    var segmentIndex = indices.stream().filter(x -> x.getSegmentIndex().containsKey(probeId)).findFirst().orElse(null);
-    return Optional.ofNullable(segmentIndex)
-        .map(i -> segmentService.getPathForSegment(i.getSegment().getSegmentName()))
-        .map(p -> fileIOService.getPayload(p, segmentIndex.getSegmentIndex().get(probeId)))
-        .filter(Optional::isPresent)
-        .map(Optional::get)
-        .orElse(null);
+  /**
+   * Versions of the probe still in the memtable, oldest first, or its latest value once it was flushed.
+   * Segments only keep the latest value, so older versions are no longer readable after a flush.
+   */
+  public List<Buffer> getVersions(final String probeId) throws IOException {
+    final var versions = memTable.getVersions(probeId);
+    if (!versions.isEmpty()) {
+      return versions;
+    }
+    final var latest = readLatest(probeId);
+    return latest == null ? List.of() : List.of(latest);
+  }
+
+  public boolean contains(final String probeId) {
+    if (memTable.get(probeId) != null) {
+      return true;
+    }
+    final var key = probeId.getBytes(StandardCharsets.UTF_8);
+    var view = readViews.acquire();
+    try {
+      return view.getSegments().stream().anyMatch(s -> s.find(key) != null);
+    } finally {
+      view.release();
+    }
+  }
+
+  /**
+   * Distinct probes in the memtable and all visible segments that pass the filter.
+   */
+  public Set<String> getProbeIds(final Predicate<String> filter) {
+    final var probeIds = new HashSet<String>();
+    memTable.getMemTable().keySet().stream().filter(filter).forEach(probeIds::add);
+    var view = readViews.acquire();
+    try {
+      view.getSegments().forEach(s -> s.getSegmentIndex().keySet().stream().filter(filter).forEach(probeIds::add));
+    } finally {
+      view.release();
+    }
+    return probeIds;
+  }
+
+  public Buffer readBytes(final ReadResult result) throws IOException {
+    if (result.isInMemory()) {
+      return result.getData();
+    }
+    return Buffer.buffer(fileIOService.readBytes(
+        result.getPath(), new SegmentMetadata(result.getOffset(), result.getSize())));
   }
 }
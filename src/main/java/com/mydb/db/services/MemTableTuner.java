@@ -0,0 +1,78 @@
+package com.mydb.db.services;
+
+import com.mydb.db.MemTableConfig;
+import com.mydb.db.entity.MemTableWrapper;
+import com.mydb.db.entity.merge.SegmentGenerator;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Derives the memtable limits from the observed ingest rate, average payload size and the heap.
+ * Limits count entries of the flush queue, which are writes in append mode and distinct probes in
+ * latest mode. The hard limit is the number of entries that fit in the configured fraction of the
+ * heap, the soft limit the number of entries queued in the target flush interval and segments hold
+ * roughly the target segment size. Limits shrink when the heap is short on headroom.
+ */
+@Slf4j
+public class MemTableTuner {
+
+  // rough per entry memory cost on top of the payload: queue nodes, buffer and probeId
+  private static final long ENTRY_OVERHEAD_BYTES = 160;
+  private static final int MIN_RECORDS = 1000;
+
+  private final MemTableConfig config;
+  private final MemTableWrapper memTable;
+  private final SegmentGenerator generator;
+  private long lastSampleNanos = System.nanoTime();
+  private double averagePayloadBytes = 0;
+
+  public MemTableTuner(MemTableConfig config, MemTableWrapper memTable, SegmentGenerator generator) {
+    this.config = config;
+    this.memTable = memTable;
+    this.generator = generator;
+  }
+
+  public synchronized void tune() {
+    final var now = System.nanoTime();
+    final var seconds = Math.max(1e-3, (now - lastSampleNanos) / 1e9);
+    lastSampleNanos = now;
+    final var writes = memTable.getWrites().sumThenReset();
+    final var bytes = memTable.getWrittenBytes().sumThenReset();
+    // in latest mode rewriting a queued probe adds nothing to flush
+    final var queued = memTable.getQueued().sumThenReset();
+    if (writes == 0) {
+      return;
+    }
+    final var payloadBytes = (double) bytes / writes;
+    averagePayloadBytes = averagePayloadBytes == 0
+        ? payloadBytes
+        : 0.8 * averagePayloadBytes + 0.2 * payloadBytes;
+    final var queuedPerSecond = queued / seconds;
+
+    final var runtime = Runtime.getRuntime();
+    final var maxHeap = runtime.maxMemory();
+    final var headroom = maxHeap - (runtime.totalMemory() - runtime.freeMemory());
+    final var budget = (long) (maxHeap * config.getHeapFraction());
+    // a probe queued in latest mode holds up to retainedVersions payloads
+    final var versions = config.getMode() == MemTableConfig.Mode.LATEST ? config.getRetainedVersions() : 1;
+    final var perEntry = (long) (averagePayloadBytes * versions) + ENTRY_OVERHEAD_BYTES;
+
+    final var hard = clamp(budget / perEntry, MIN_RECORDS, Integer.MAX_VALUE);
+    var soft = clamp((long) (queuedPerSecond * config.getTargetFlushIntervalMs() / 1000), MIN_RECORDS, hard / 2);
+    if (headroom < budget / 2) {
+      // flush early rather than let the memtable push the heap into long collections
+      soft = clamp(soft / 2, MIN_RECORDS, hard / 2);
+    }
+    final var segmentRecords = (long) (config.getTargetSegmentBytes() / Math.max(1, averagePayloadBytes));
+    final var segment = clamp(segmentRecords, MIN_RECORDS, soft);
+
+    generator.setLimits(soft, hard, segment);
+    log.debug("Memtable limits - soft {}, hard {}, segment {} ({} writes/s, {} queued/s, {} bytes/write, "
+            + "{} MB heap headroom)",
+        soft, hard, segment, (long) (writes / seconds), (long) queuedPerSecond, (long) averagePayloadBytes,
+        headroom >> 20);
+  }
+
+  private static int clamp(final long value, final int min, final long max) {
+    return (int) Math.max(min, Math.min(value, Math.max(min, max)));
+  }
+}
@@ -1,108 +1,178 @@
 package com.mydb.db.services;
 
+import com.mydb.db.entity.PackedSegmentIndex;
+import com.mydb.db.entity.Segment;
 import com.mydb.db.entity.SegmentIndex;
 import com.mydb.db.entity.SegmentMetadata;
-import com.mydb.db.entity.merge.HeapElement;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import com.mydb.db.entity.merge.CompactionThrottle;
+import com.mydb.db.entity.merge.MergeCursor;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.PriorityQueue;
-
-import static com.mydb.db.entity.merge.HeapElement.getHeapElementComparator;
-import static com.mydb.db.entity.merge.HeapElement.isProbeIdPresentInList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class MergeService {
 
+  private static final int MIN_KEYS_PER_RANGE = 10000;
+
   private final FileIOService fileIOService;
+  private final SegmentService segmentService;
+  private final CompactionThrottle throttle;
+  private final ForkJoinPool pool;
+  private final int parallelism;
 
-  public MergeService(FileIOService fileIOService) {
+  public MergeService(
+      FileIOService fileIOService, SegmentService segmentService,
+      CompactionThrottle throttle, int parallelism
+  ) {
     this.fileIOService = fileIOService;
+    this.segmentService = segmentService;
+    this.throttle = throttle;
+    this.parallelism = parallelism;
+    this.pool = new ForkJoinPool(parallelism);
   }
 
-  public Map<String, SegmentMetadata> merge(
-      List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentIndexEnumeration,
-      final String mergeSegmentPath
-  )
-      throws IOException {
-    var mergeSegment = new File(mergeSegmentPath);
-    final Map<String, SegmentMetadata> mergedSegmentIndex = new LinkedHashMap<>();
-    var heap = new PriorityQueue<>(getHeapElementComparator());
-
-    heap.addAll(getSeedElements(segmentIndexEnumeration));
-
-    var last = new HeapElement("", -1);
-    while (!heap.isEmpty()) {
-      var candidate = findNextCandidate(segmentIndexEnumeration, heap, last);
-      if (couldNotFindNextElementToProcess(heap, last, candidate)) {
-        break;
-      }
-      var segmentIndex = segmentIndexEnumeration.get(candidate.getIndex()).right;
-      var in = fileIOService.readBytes(
-          segmentIndex.getSegment().getSegmentPath(),
-          segmentIndex.getSegmentIndex().get(candidate.getProbeId())
-      );
-      mergedSegmentIndex.put(candidate.getProbeId(), new SegmentMetadata(mergeSegment.length(), in.length));
-      FileUtils.writeByteArrayToFile(mergeSegment, in, true);
-
-      addNextHeapElementForSegment(segmentIndexEnumeration, heap, candidate);
-      last = candidate;
+  /**
+   * Merges the inputs, ordered newest first, keeping only the newest value of every key. The key
+   * space is split at fence keys taken from the largest input, and every range is merged in parallel
+   * into its own segment. Keys whose newest value was written before expiredBefore are dropped.
+   * Returns the output segments once all of them are written.
+   */
+  public List<SegmentIndex> merge(final List<SegmentIndex> inputs, final long expiredBefore)
+      throws IOException, InterruptedException {
+    final var packed = inputs.stream().map(i -> PackedSegmentIndex.of(i.getSegmentIndex())).toList();
+    final var fences = getFenceKeys(packed);
+
+    final var tasks = new ArrayList<Callable<Optional<SegmentIndex>>>();
+    for (var range = 0; range <= fences.size(); range++) {
+      final var from = range == 0 ? null : fences.get(range - 1);
+      final var to = range == fences.size() ? null : fences.get(range);
+      final var segment = segmentService.getNewSegment();
+      tasks.add(() -> mergeRange(inputs, packed, from, to, segment, expiredBefore));
     }
-    return mergedSegmentIndex;
-  }
 
-  private HeapElement findNextCandidate(List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentIndexEnumeration,
-                                        PriorityQueue<HeapElement> heap, HeapElement last) {
-    var next = heap.remove();
-    while (next.getProbeId().equals(last.getProbeId())) {
-      addNextHeapElementForSegment(segmentIndexEnumeration, heap, next);
-      if (heap.isEmpty()) {
-        break;
+    final var outputs = new ArrayList<SegmentIndex>();
+    Throwable failure = null;
+    for (var result : pool.invokeAll(tasks)) {
+      try {
+        result.get().ifPresent(outputs::add);
+      } catch (ExecutionException e) {
+        failure = e.getCause();
       }
-      next = heap.remove();
     }
-    return next;
+    if (failure != null) {
+      outputs.forEach(o -> new File(o.getSegment().getSegmentPath()).delete());
+      throw new IOException("Merge failed", failure);
+    }
+    return outputs;
   }
 
-  private boolean couldNotFindNextElementToProcess(PriorityQueue<HeapElement> heap, HeapElement last,
-                                                   HeapElement next) {
-    return heap.isEmpty() && next.getProbeId().equals(last.getProbeId());
+  private List<byte[]> getFenceKeys(final List<PackedSegmentIndex> inputs) {
+    final var largest = inputs.stream().max(Comparator.comparingInt(PackedSegmentIndex::size)).orElseThrow();
+    final var ranges = Math.max(1, Math.min(parallelism, largest.size() / MIN_KEYS_PER_RANGE));
+    final var fences = new ArrayList<byte[]>();
+    for (var i = 1; i < ranges; i++) {
+      fences.add(largest.keyBytesAt((int) ((long) largest.size() * i / ranges)));
+    }
+    return fences;
   }
 
-  private void addNextHeapElementForSegment(
-      List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentIndexEnumeration,
-      PriorityQueue<HeapElement> heap, HeapElement next) {
-    var iterator = segmentIndexEnumeration.get(next.getIndex()).left;
-    if (iterator.hasMoreElements()) {
-      heap.add(new HeapElement(iterator.nextElement(), next.getIndex()));
+  private Optional<SegmentIndex> mergeRange(
+      final List<SegmentIndex> inputs,
+      final List<PackedSegmentIndex> packed,
+      final byte[] from,
+      final byte[] to,
+      final Segment segment,
+      final long expiredBefore
+  ) throws IOException, InterruptedException {
+    final var heap = new PriorityQueue<MergeCursor>();
+    for (var i = 0; i < packed.size(); i++) {
+      final var index = packed.get(i);
+      final var start = from == null ? 0 : index.ceilingSlot(from);
+      final var end = to == null ? index.size() : index.ceilingSlot(to);
+      if (start < end) {
+        heap.add(new MergeCursor(i, index, start, end));
+      }
+    }
+    if (heap.isEmpty()) {
+      return Optional.empty();
     }
-  }
 
-  private LinkedList<HeapElement> getSeedElements(
-      List<ImmutablePair<Enumeration<String>, SegmentIndex>> segmentIndexEnumeration) {
-    var firstElements = new LinkedList<HeapElement>();
-    int itr = 0;
-    while (itr < segmentIndexEnumeration.size()) {
-      var next = new HeapElement(segmentIndexEnumeration.get(itr).left.nextElement(), itr);
-      while (isProbeIdPresentInList(firstElements, next.getProbeId())) {
-        if (segmentIndexEnumeration.get(itr).left.hasMoreElements()) {
-          next = new HeapElement(segmentIndexEnumeration.get(itr).left.nextElement(), itr);
-        } else {
-          break;
+    final var mergeSegment = new File(segment.getSegmentPath());
+    final var temp = fileIOService.getTempFile(mergeSegment);
+    final var builder = new PackedSegmentIndex.Builder();
+    final var files = new RandomAccessFile[inputs.size()];
+    try (var outputStream = new FileOutputStream(temp);
+         var bufferedStream = new BufferedOutputStream(outputStream)) {
+      var offset = 0L;
+      while (!heap.isEmpty()) {
+        final var newest = heap.remove();
+        final var metadata = newest.getMetadata();
+        if (metadata.getWriteTime() >= expiredBefore) {
+          throttle.acquire((int) metadata.getSize());
+          final var in = read(files, inputs, newest.getInput(), metadata);
+          builder.add(newest.getIndex(), newest.getSlot(), offset, in.length, metadata.getWriteTime());
+          bufferedStream.write(in);
+          offset += in.length;
         }
+
+        skipOlderVersions(heap, newest);
+        reinsert(heap, newest);
       }
-      if (!isProbeIdPresentInList(firstElements, next.getProbeId())) {
-        firstElements.add(next);
+      bufferedStream.flush();
+      fileIOService.sync(outputStream);
+    } finally {
+      for (var file : files) {
+        if (file != null) {
+          file.close();
+        }
       }
-      itr += 1;
     }
-    return firstElements;
+    if (builder.isEmpty()) {
+      // everything in the range expired
+      temp.delete();
+      return Optional.empty();
+    }
+    fileIOService.commit(temp, mergeSegment);
+    return Optional.of(new SegmentIndex(segment, builder.build(), builder.getMaxWriteTime()));
+  }
+
+  private void skipOlderVersions(final PriorityQueue<MergeCursor> heap, final MergeCursor newest) {
+    while (!heap.isEmpty() && heap.peek().hasSameKey(newest)) {
+      reinsert(heap, heap.remove());
+    }
+  }
+
+  private void reinsert(final PriorityQueue<MergeCursor> heap, final MergeCursor cursor) {
+    cursor.advance();
+    if (cursor.hasCurrent()) {
+      heap.add(cursor);
+    }
+  }
+
+  private byte[] read(
+      final RandomAccessFile[] files,
+      final List<SegmentIndex> inputs,
+      final int input,
+      final SegmentMetadata metadata
+  ) throws IOException {
+    if (files[input] == null) {
+      files[input] = new RandomAccessFile(inputs.get(input).getSegment().getSegmentPath(), "r");
+    }
+    final var in = new byte[(int) metadata.getSize()];
+    files[input].seek(metadata.getOffset());
+    files[input].readFully(in);
+    return in;
   }
 
 }
@@ -0,0 +1,64 @@
+package com.mydb.db.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mydb.db.NegativeCacheConfig;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers probes a read found nowhere, so repeated misses skip the segment scan. Every write bumps
+ * a version counter for the probe's stripe; an entry records the version seen before the lookup
+ * started and only counts while the stripe is unchanged, so a write racing with a miss can never be
+ * hidden by it.
+ */
+public class NegativeLookupCache {
+
+  private static final int STRIPES = 1024;
+
+  private final boolean enabled;
+  private final Cache<String, Long> misses;
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+
+  public NegativeLookupCache(final NegativeCacheConfig config) {
+    this.enabled = config.isEnabled();
+    this.misses = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaxEntries())
+        .build();
+  }
+
+  /**
+   * Version to pass to {@link #recordMiss} if the lookup that follows misses.
+   */
+  public long version(final String probeId) {
+    return versions.get(stripe(probeId));
+  }
+
+  public boolean isKnownMiss(final String probeId) {
+    if (!enabled) {
+      return false;
+    }
+    var version = misses.getIfPresent(probeId);
+    return version != null && version == versions.get(stripe(probeId));
+  }
+
+  public void recordMiss(final String probeId, final long version) {
+    if (enabled) {
+      misses.put(probeId, version);
+    }
+  }
+
+  /**
+   * Called for every write, after it is visible to reads.
+   */
+  public void invalidate(final String probeId) {
+    versions.incrementAndGet(stripe(probeId));
+    if (enabled) {
+      misses.invalidate(probeId);
+    }
+  }
+
+  private static int stripe(final String probeId) {
+    return probeId.hashCode() & (STRIPES - 1);
+  }
+}
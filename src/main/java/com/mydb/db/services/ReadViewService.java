@@ -0,0 +1,159 @@
+package com.mydb.db.services;
+
+import com.mydb.db.entity.ReadView;
+import com.mydb.db.entity.SegmentIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.SerializationUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Publishes the segment list as a sequence of immutable {@link ReadView}s. Readers acquire the
+ * current view without locking; flushes and merges publish a new one with a single swap. Segments
+ * retired by a merge are deleted once no view refers to them any more, from the archive too if they
+ * were archived. The last view is often released on an event loop, so files are deleted on a thread
+ * of their own and index backups are written outside the lock guarding the view counts.
+ */
+@Slf4j
+public class ReadViewService {
+
+  private final FileIOService fileIOService;
+  private final SegmentService segmentService;
+  private final ArchiveService archiveService;
+  private final AtomicReference<ReadView> current = new AtomicReference<>();
+  // number of open views containing a segment, by identity as segment indices are never copied
+  private final Map<SegmentIndex, Integer> viewCounts = new IdentityHashMap<>();
+  private final Map<SegmentIndex, Boolean> retired = new IdentityHashMap<>();
+  // retired segments the latest durable index backup still lists
+  private final List<SegmentIndex> awaitingBackup = new ArrayList<>();
+  private final Object backupLock = new Object();
+  private final ExecutorService deleter = Executors.newSingleThreadExecutor(r -> {
+    var thread = new Thread(r, "segment-deleter");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public ReadViewService(final FileIOService fileIOService, final SegmentService segmentService,
+                         final ArchiveService archiveService, final Collection<SegmentIndex> segments) {
+    this.fileIOService = fileIOService;
+    this.segmentService = segmentService;
+    this.archiveService = archiveService;
+    var initial = new ReadView(0, List.copyOf(segments), this::closed);
+    initial.getSegments().forEach(s -> viewCounts.merge(s, 1, Integer::sum));
+    current.set(initial);
+  }
+
+  /**
+   * The current view with a reference taken, to be released once the read is done with its files.
+   */
+  public ReadView acquire() {
+    while (true) {
+      var view = current.get();
+      if (view.tryAcquire()) {
+        return view;
+      }
+    }
+  }
+
+  /**
+   * Segments currently visible, for bookkeeping that does not touch segment files.
+   */
+  public List<SegmentIndex> getSegments() {
+    return current.get().getSegments();
+  }
+
+  /**
+   * Publishes a view with the segment list changed by the given function. Publishers are serialized,
+   * so the change always applies to the latest list.
+   */
+  public synchronized ReadView publish(final UnaryOperator<List<SegmentIndex>> change) {
+    var previous = current.get();
+    var next = new ReadView(previous.getVersion() + 1, change.apply(previous.getSegments()), this::closed);
+    next.getSegments().forEach(s -> viewCounts.merge(s, 1, Integer::sum));
+    current.set(next);
+    previous.release();
+    return next;
+  }
+
+  /**
+   * Marks segments that are no longer part of the current view for deletion. Their files are deleted
+   * once the next index backup is durable and the last view containing them is released, so a
+   * restart never loads an index that points at deleted files.
+   */
+  public synchronized void retire(final Collection<SegmentIndex> segments) {
+    awaitingBackup.addAll(segments);
+  }
+
+  /**
+   * Writes the current segment list as a new index backup, which supersedes all older ones. Backups
+   * are written one at a time and each gets a path allocated after the previous one, so a later
+   * backup never holds an older list.
+   */
+  public void persistIndices() throws IOException {
+    synchronized (backupLock) {
+      final List<SegmentIndex> segments;
+      final List<SegmentIndex> backedUp;
+      synchronized (this) {
+        // segments are retired after the view without them is published, so none of them is listed
+        segments = current.get().getSegments();
+        backedUp = List.copyOf(awaitingBackup);
+        awaitingBackup.clear();
+      }
+      try {
+        final var backupPath = segmentService.getNewBackupPath();
+        fileIOService.persistIndices(backupPath, SerializationUtils.serialize(new ConcurrentLinkedDeque<>(segments)));
+        segmentService.deleteBackupsBefore(backupPath);
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          awaitingBackup.addAll(backedUp);
+        }
+        throw e;
+      }
+      synchronized (this) {
+        backedUp.forEach(s -> {
+          if (viewCounts.containsKey(s)) {
+            retired.put(s, true);
+          } else {
+            delete(s);
+          }
+        });
+      }
+    }
+  }
+
+  private synchronized void closed(final ReadView view) {
+    view.getSegments().forEach(s -> {
+      if (viewCounts.merge(s, -1, Integer::sum) == 0) {
+        viewCounts.remove(s);
+        if (retired.remove(s) != null) {
+          delete(s);
+        }
+      }
+    });
+  }
+
+  private void delete(final SegmentIndex segmentIndex) {
+    deleter.execute(() -> {
+      var segment = segmentIndex.getSegment();
+      try {
+        new File(segment.getSegmentPath()).delete();
+        if (segmentIndex.isArchived()) {
+          archiveService.delete(segmentIndex);
+        }
+      } catch (IOException | RuntimeException exception) {
+        log.error("Unable to delete segment {}", segment.getSegmentName(), exception);
+      }
+    });
+  }
+}
@@ -4,32 +4,95 @@ import com.mydb.db.SegmentConfig;
 import com.mydb.db.StateLoader;
 import com.mydb.db.entity.Segment;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
 public class SegmentService {
 
+  private static final Pattern BACKUP_NAME = Pattern.compile("backup-(\\d+)");
+
   private final SegmentConfig segmentConfig;
   private final FileIOService fileIOService;
+  // numbered apart from segments, continuing after the newest backup on disk
+  private long backupCount;
 
   public SegmentService(final SegmentConfig segmentConfig, FileIOService fileIOService) {
     this.segmentConfig = segmentConfig;
     this.fileIOService = fileIOService;
+    this.backupCount = listBackups(segmentConfig.getBasePath()).stream()
+        .mapToLong(SegmentService::getBackupNumber)
+        .max()
+        .orElse(-1);
+  }
+
+  public synchronized SegmentConfig getCurrentSegmentConfig() {
+    return new SegmentConfig(segmentConfig.getBasePath(), segmentConfig.getCount(), segmentConfig.getLastFlushedWal());
+  }
+
+  /**
+   * Records that the WAL files up to lastFlushedWal are no longer needed for recovery.
+   */
+  public synchronized void checkpointWal(final long lastFlushedWal) throws IOException {
+    segmentConfig.setLastFlushedWal(lastFlushedWal);
+    fileIOService.persistConfig(StateLoader.CONFIG_PATH, getCurrentSegmentConfig());
   }
 
-  private SegmentConfig getCurrentSegmentConfig() {
-    return new SegmentConfig(segmentConfig.getBasePath(), segmentConfig.getCount());
+  /**
+   * Path for the next index backup. Allocated when the backup is written, so the highest numbered
+   * backup, which is the one loaded at startup, always holds the latest published segment list.
+   */
+  public synchronized String getNewBackupPath() {
+    return getPathForBackup(getBackupName(++backupCount));
   }
 
-  public Segment getNewSegment() {
+  /**
+   * Deletes the index backups older than the given one, which supersedes them once it is written.
+   */
+  public void deleteBackupsBefore(final String backupPath) {
+    final var number = getBackupNumber(new File(backupPath));
+    listBackups(segmentConfig.getBasePath()).stream()
+        .filter(backup -> getBackupNumber(backup) < number)
+        .forEach(File::delete);
+  }
+
+  /**
+   * Index backups under the base path, newest first.
+   */
+  public static List<File> listBackups(final String basePath) {
+    return Optional.ofNullable(new File(basePath, "indices").listFiles()).stream()
+        .flatMap(Stream::of)
+        .filter(file -> BACKUP_NAME.matcher(file.getName()).matches())
+        .sorted(Comparator.comparingLong(SegmentService::getBackupNumber).reversed())
+        .toList();
+  }
+
+  private static long getBackupNumber(final File backup) {
+    var matcher = BACKUP_NAME.matcher(backup.getName());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
+
+  public synchronized Segment getNewSegment() {
     segmentConfig.setCount(segmentConfig.getCount() + 1);
     var newSegmentName = getSegmentName(segmentConfig.getCount());
     var newSegmentPath = getPathForSegment(newSegmentName);
-    var newBackupName = getBackupName(segmentConfig.getCount());
-    var newBackupPath = getPathForBackup(newBackupName);
-    fileIOService.persistConfig(StateLoader.CONFIG_PATH, getCurrentSegmentConfig());
+    try {
+      // a count that is not durable could hand out the name of an existing segment after a restart
+      fileIOService.persistConfig(StateLoader.CONFIG_PATH, getCurrentSegmentConfig());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // index backups are numbered on their own, a segment no longer has one
     return new Segment(
         newSegmentName,
         newSegmentPath,
-        newBackupName,
-        newBackupPath
+        null,
+        null
     );
   }
 
@@ -0,0 +1,203 @@
+package com.mydb.db.services;
+
+import com.mydb.db.StateLoader;
+import com.mydb.db.cluster.PartitionHandoff;
+import com.mydb.db.entity.SegmentIndex;
+import com.mydb.db.entity.merge.SegmentGenerator;
+import com.mydb.db.replication.ReplicationFollower;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.SerializationUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Point-in-time snapshots made of hard links. Segment and WAL files are never modified once
+ * written, so linking them freezes their content without copying any data. A snapshot holds the
+ * segments of a read view, the WAL files written since the segments' last checkpoint, cut by a
+ * rotation, the index of the view and the segment state as its manifest, written last. Archived
+ * segments are only referenced by the index; the archive tier is not part of a snapshot. A follower's
+ * snapshot also holds its replication position, so it resumes from there after a restore. The ring
+ * a cluster node adopted is not data: a restore keeps the current one, so probes handed to other
+ * nodes since the snapshot stay theirs.
+ */
+@Slf4j
+public class SnapshotService {
+
+  public static final File SNAPSHOT_DIRECTORY = new File(StateLoader.PATH_TO_HOME + "/snapshots");
+  private static final File DATA_DIRECTORY = new File(StateLoader.PATH_TO_HOME + "/data");
+  private static final String MANIFEST = "segmentState.json";
+  private static final DateTimeFormatter NAME_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+  private final FileIOService fileIOService;
+  private final SegmentService segmentService;
+  private final WALService walService;
+  private final ReadViewService readViews;
+  private final SegmentGenerator segmentGenerator;
+
+  public SnapshotService(FileIOService fileIOService, SegmentService segmentService, WALService walService,
+                         ReadViewService readViews, SegmentGenerator segmentGenerator) {
+    this.fileIOService = fileIOService;
+    this.segmentService = segmentService;
+    this.walService = walService;
+    this.readViews = readViews;
+    this.segmentGenerator = segmentGenerator;
+  }
+
+  public JsonObject createSnapshot() throws IOException {
+    final var directory = createSnapshotDirectory(NAME_FORMAT.format(Instant.now()));
+    final var name = directory.getName();
+    final var segments = new File(directory, "segments");
+    final var wal = new File(directory, "wal");
+    Files.createDirectories(new File(segments, "indices").toPath());
+    Files.createDirectories(wal.toPath());
+
+    // no flush may move data from the WAL into segments while the two are cut
+    final var summary = segmentGenerator.runExclusive(() -> {
+      final var view = readViews.acquire();
+      try {
+        final var state = segmentService.getCurrentSegmentConfig();
+        // copied before the WAL is cut, so it never covers a record the snapshot is missing
+        if (ReplicationFollower.POSITION_FILE.exists()) {
+          Files.copy(ReplicationFollower.POSITION_FILE.toPath(),
+              new File(directory, ReplicationFollower.POSITION_FILE.getName()).toPath());
+        }
+        final var lastWal = walService.rotate();
+        final var walFiles = WALService.getWalFilesBetween(state.getLastFlushedWal(), lastWal);
+        for (var walFile : walFiles) {
+          link(walFile, new File(wal, walFile.getName()));
+        }
+        var linkedSegments = 0;
+        for (var segmentIndex : view.getSegments()) {
+          final var segmentFile = new File(segmentIndex.getSegment().getSegmentPath());
+          if (!segmentIndex.isArchived() && segmentFile.exists()) {
+            link(segmentFile, new File(segments, segmentFile.getName()));
+            linkedSegments++;
+          }
+        }
+        fileIOService.persistIndices(
+            new File(segments, "indices/backup-" + state.getCount()).getPath(),
+            SerializationUtils.serialize(new ConcurrentLinkedDeque<>(view.getSegments())));
+        fileIOService.persistConfig(new File(directory, MANIFEST).getPath(), state);
+        return new JsonObject()
+            .put("name", name)
+            .put("path", directory.getPath())
+            .put("segments", linkedSegments)
+            .put("archivedSegments", view.getSegments().stream().filter(SegmentIndex::isArchived).count())
+            .put("walFiles", walFiles.size());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        view.release();
+      }
+    });
+    log.info("Created snapshot {}", summary.encode());
+    return summary;
+  }
+
+  /**
+   * Snapshots taken within the same millisecond get a numbered suffix; the directory is created
+   * here, so two snapshots never share one.
+   */
+  private static File createSnapshotDirectory(final String name) throws IOException {
+    Files.createDirectories(SNAPSHOT_DIRECTORY.toPath());
+    for (var attempt = 0; ; attempt++) {
+      final var directory = new File(SNAPSHOT_DIRECTORY, attempt == 0 ? name : name + "-" + attempt);
+      try {
+        Files.createDirectory(directory.toPath());
+        return directory;
+      } catch (FileAlreadyExistsException e) {
+        // taken by a concurrent snapshot, try the next suffix
+      }
+    }
+  }
+
+  /**
+   * Names of the complete snapshots.
+   */
+  public JsonArray listSnapshots() {
+    return new JsonArray(Optional.ofNullable(SNAPSHOT_DIRECTORY.listFiles(file -> new File(file, MANIFEST).exists()))
+        .map(Arrays::stream)
+        .map(files -> files.map(File::getName).sorted().toList())
+        .orElse(List.of()));
+  }
+
+  /**
+   * Replaces the data and WAL directories with links to the snapshot, moving the current ones aside.
+   * Runs before anything is loaded; a snapshot is only restored once.
+   */
+  public static void restore(final String name) throws IOException {
+    final var directory = new File(SNAPSHOT_DIRECTORY, name);
+    final var marker = new File(DATA_DIRECTORY, ".restored-" + name);
+    if (marker.exists()) {
+      return;
+    }
+    if (!new File(directory, MANIFEST).exists()) {
+      throw new IllegalStateException("No complete snapshot named " + name);
+    }
+    final var suffix = "-replaced-" + System.currentTimeMillis();
+    for (var current : new File[]{DATA_DIRECTORY, WALService.WAL_DIRECTORY}) {
+      if (current.exists()) {
+        Files.move(current.toPath(), new File(current.getPath() + suffix).toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    linkTree(new File(directory, "segments").toPath(), new File(StateLoader.DEFAULT_BASE_PATH).toPath());
+    linkTree(new File(directory, "wal").toPath(), WALService.WAL_DIRECTORY.toPath());
+    Files.copy(new File(directory, MANIFEST).toPath(), new File(StateLoader.CONFIG_PATH).toPath());
+    copyIfExists(new File(directory, ReplicationFollower.POSITION_FILE.getName()), ReplicationFollower.POSITION_FILE);
+    copyIfExists(new File(DATA_DIRECTORY.getPath() + suffix, PartitionHandoff.RING_FILE.getName()),
+        PartitionHandoff.RING_FILE);
+    Files.createFile(marker.toPath());
+    log.info("Restored snapshot {}, previous data moved aside with suffix {}", name, suffix);
+  }
+
+  private static void copyIfExists(final File source, final File target) throws IOException {
+    if (source.exists()) {
+      Files.copy(source.toPath(), target.toPath());
+    }
+  }
+
+  private static void linkTree(final Path source, final Path target) throws IOException {
+    Files.createDirectories(target);
+    try (var paths = Files.walk(source)) {
+      paths.forEach(path -> {
+        final var destination = target.resolve(source.relativize(path));
+        try {
+          if (Files.isDirectory(path)) {
+            Files.createDirectories(destination);
+          } else if (path.getParent().endsWith("indices")) {
+            // index backups are small and rewritten, copy them
+            Files.copy(path, destination);
+          } else {
+            Files.createLink(destination, path);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    }
+  }
+
+  private static void link(final File existing, final File link) {
+    try {
+      Files.createLink(link.toPath(), existing.toPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package com.mydb.db.services;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.mydb.db.DurabilityConfig;
+import com.mydb.db.DurabilityPolicy;
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+@Slf4j
+public class WALService {
+
+  public static final String PATH_TO_HOME = System.getProperty("user.home");
+  public static final File WAL_DIRECTORY = new File(PATH_TO_HOME + "/wal");
+  // single file WALs written before the WAL was segmented, replayed once and removed at the next checkpoint
+  public static final List<File> LEGACY_WAL_FILES = List.of(
+      new File(WAL_DIRECTORY, "wal_backup"), new File(WAL_DIRECTORY, "wal"));
+  // separates the JSON payloads of WAL files written before records carried their probeId
+  public static final byte[] DELIMITER = "----".getBytes(StandardCharsets.UTF_8);
+  // starts every WAL file of length prefixed records: probeId length, probeId, payload length, payload
+  public static final byte[] FORMAT_HEADER = "mydb-wal-2\n".getBytes(StandardCharsets.UTF_8);
+  private static final String WAL_FILE_PREFIX = "wal-";
+
+  private final DurabilityConfig durability;
+  private final Executor executor;
+  private final Executor writeQueue;
+  private final Executor continuations;
+  private FileChannel channel;
+  private long fileSequence;
+  private List<CompletableFuture<Boolean>> pendingSyncs = new ArrayList<>();
+  private long sequence = 0;
+  // sequences start over with every run, the epoch tells runs apart
+  private final long epoch = System.currentTimeMillis();
+
+  /**
+   * WAL files are numbered; a new one is started after the newest existing file, or after the last
+   * checkpoint if all files up to it are already deleted.
+   */
+  public WALService(final DurabilityConfig durability, final Executor executor, final long lastFlushedWal) {
+    this.durability = durability;
+    this.executor = executor;
+    // writes take the WAL lock one at a time anyway, queueing them keeps them in call order
+    this.writeQueue = MoreExecutors.newSequentialExecutor(executor);
+    // a record in the WAL must not be reported as failed because the executor is full, what follows
+    // a write runs on the thread that finished it instead
+    this.continuations = task -> {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    };
+    this.fileSequence = getWalFiles().stream()
+        .mapToLong(WALService::getFileSequence)
+        .max()
+        .orElse(lastFlushedWal);
+    open();
+    if (durability.getPolicy() == DurabilityPolicy.GROUP_COMMIT) {
+      scheduleGroupCommit();
+    }
+    log.info("WAL durability policy - {}", durability.getPolicy());
+  }
+
+  /**
+   * Identifies this run of the WAL. A sequence only names a record together with the epoch it was
+   * assigned in.
+   */
+  public long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Appends the record and runs onWritten with its sequence while the WAL is still locked, so a
+   * record is always applied to the memtable before the file holding it can be rotated away, and
+   * records are applied in sequence order. The returned future completes with the record's sequence
+   * once it is durable according to the policy; under {@link DurabilityPolicy#GROUP_COMMIT} it is
+   * applied before that. If the record cannot be written, or synced under
+   * {@link DurabilityPolicy#ALWAYS}, it is not applied and the future fails. Records are written in
+   * the order append is called, so writes appended from one thread keep their order. If the WAL
+   * executor is full the record is rejected right away and the future fails with a
+   * {@link RejectedExecutionException}.
+   */
+  public CompletableFuture<Long> append(final String probeId, final Buffer payload, final LongConsumer onWritten) {
+    var probeIdBytes = probeId.getBytes(StandardCharsets.UTF_8);
+    var record = Buffer.buffer(Integer.BYTES + probeIdBytes.length + Integer.BYTES + payload.length())
+        .appendInt(probeIdBytes.length)
+        .appendBytes(probeIdBytes)
+        .appendInt(payload.length())
+        .appendBuffer(payload)
+        .getBytes();
+    // what depends on the write, such as a flush, continues on the WAL executor and not in the queue
+    try {
+      return supplyAsync(() -> write(record, onWritten), writeQueue)
+          .thenComposeAsync(synced -> synced, continuations);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private synchronized CompletableFuture<Long> write(final byte[] record, final LongConsumer onWritten) {
+    try {
+      writeRecord(record);
+    } catch (IOException e) {
+      log.error("Unable to write to the WAL, the record is rejected", e);
+      return CompletableFuture.failedFuture(e);
+    }
+    final var recordSequence = ++sequence;
+    onWritten.accept(recordSequence);
+    if (durability.getPolicy() == DurabilityPolicy.GROUP_COMMIT) {
+      var synced = new CompletableFuture<Boolean>();
+      pendingSyncs.add(synced);
+      return synced.thenApply(b -> recordSequence);
+    }
+    return CompletableFuture.completedFuture(recordSequence);
+  }
+
+  private void writeRecord(final byte[] record) throws IOException {
+    final var start = channel.size();
+    try {
+      var buffer = ByteBuffer.wrap(record);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      if (durability.getPolicy() == DurabilityPolicy.ALWAYS) {
+        channel.force(false);
+      }
+    } catch (IOException e) {
+      // a partly written record would be replayed as garbage after a restart
+      try {
+        channel.truncate(start);
+      } catch (IOException truncateFailure) {
+        e.addSuppressed(truncateFailure);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Closes the current WAL file and starts the next one. Returns the sequence of the closed file:
+   * every record in it and in older files is in the memtable by now.
+   */
+  public synchronized long rotate() {
+    syncAndClose();
+    var closed = fileSequence;
+    open();
+    return closed;
+  }
+
+  /**
+   * Deletes the WAL files whose records are all flushed into segments.
+   */
+  public void deleteUpTo(final long lastFlushedWal) {
+    getWalFiles().stream()
+        .filter(file -> getFileSequence(file) <= lastFlushedWal)
+        .forEach(File::delete);
+    LEGACY_WAL_FILES.forEach(File::delete);
+  }
+
+  /**
+   * WAL files that may hold records not flushed yet, oldest first.
+   */
+  public static List<File> getWalFilesAfter(final long lastFlushedWal) {
+    return getWalFilesBetween(lastFlushedWal, Long.MAX_VALUE);
+  }
+
+  /**
+   * WAL files after lastFlushedWal up to and including upTo, oldest first.
+   */
+  public static List<File> getWalFilesBetween(final long lastFlushedWal, final long upTo) {
+    var files = new ArrayList<>(LEGACY_WAL_FILES.stream().filter(File::exists).toList());
+    getWalFiles().stream()
+        .filter(file -> getFileSequence(file) > lastFlushedWal && getFileSequence(file) <= upTo)
+        .sorted(Comparator.comparingLong(WALService::getFileSequence))
+        .forEach(files::add);
+    return files;
+  }
+
+  /**
+   * Hands the probeId and payload of every record in the content of a WAL file to the consumer, in
+   * order. Returns false if the file is not made of records but of delimited payloads, as written
+   * before records carried their probeId. A record cut short by a crash ends the file.
+   */
+  public static boolean readRecords(final byte[] wal, final BiConsumer<String, Buffer> consumer) {
+    if (wal.length == 0) {
+      return true;
+    }
+    if (!Arrays.equals(wal, 0, Math.min(wal.length, FORMAT_HEADER.length), FORMAT_HEADER, 0, FORMAT_HEADER.length)) {
+      return false;
+    }
+    final var buffer = Buffer.buffer(wal);
+    var position = FORMAT_HEADER.length;
+    while (buffer.length() - position >= Integer.BYTES) {
+      final var probeIdLength = buffer.getInt(position);
+      if (probeIdLength < 0 || buffer.length() - position - Integer.BYTES - Integer.BYTES < probeIdLength) {
+        break;
+      }
+      final var payloadStart = position + Integer.BYTES + probeIdLength + Integer.BYTES;
+      final var payloadLength = buffer.getInt(payloadStart - Integer.BYTES);
+      if (payloadLength < 0 || buffer.length() - payloadStart < payloadLength) {
+        break;
+      }
+      consumer.accept(
+          buffer.getString(position + Integer.BYTES, payloadStart - Integer.BYTES, StandardCharsets.UTF_8.name()),
+          buffer.getBuffer(payloadStart, payloadStart + payloadLength));
+      position = payloadStart + payloadLength;
+    }
+    if (position < buffer.length()) {
+      log.warn("Ignoring {} bytes of a WAL record cut short", buffer.length() - position);
+    }
+    return true;
+  }
+
+  private static List<File> getWalFiles() {
+    return Optional.ofNullable(WAL_DIRECTORY.listFiles((dir, name) -> name.startsWith(WAL_FILE_PREFIX)))
+        .map(List::of)
+        .orElse(List.of());
+  }
+
+  private static long getFileSequence(final File file) {
+    return Long.parseLong(file.getName().substring(WAL_FILE_PREFIX.length()));
+  }
+
+  /**
+   * Writers waiting for a group commit of the closed file fail if it could not be synced.
+   */
+  private void syncAndClose() {
+    IOException failure = null;
+    try {
+      if (durability.syncFiles()) {
+        channel.force(false);
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      failure = failure == null ? e : failure;
+    }
+    if (failure != null) {
+      log.error("Unable to sync WAL file {}", fileSequence, failure);
+    }
+    completePendingSyncs(pendingSyncs, failure);
+    pendingSyncs = new ArrayList<>();
+  }
+
+  private void open() {
+    try {
+      Files.createDirectories(WAL_DIRECTORY.toPath());
+      fileSequence++;
+      var walFile = new File(WAL_DIRECTORY, WAL_FILE_PREFIX + fileSequence);
+      channel = FileChannel.open(walFile.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      if (channel.size() == 0) {
+        writeRecord(FORMAT_HEADER);
+      }
+      if (durability.syncFiles()) {
+        FileIOService.syncDirectory(WAL_DIRECTORY);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void scheduleGroupCommit() {
+    ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+      var thread = new Thread(r, "wal-group-commit");
+      thread.setDaemon(true);
+      return thread;
+    });
+    var interval = durability.getGroupCommitIntervalMs();
+    syncer.scheduleWithFixedDelay(this::groupCommit, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private void groupCommit() {
+    final List<CompletableFuture<Boolean>> batch;
+    final FileChannel current;
+    synchronized (this) {
+      if (pendingSyncs.isEmpty()) {
+        return;
+      }
+      batch = pendingSyncs;
+      pendingSyncs = new ArrayList<>();
+      current = channel;
+    }
+    IOException failure = null;
+    try {
+      current.force(false);
+    } catch (ClosedChannelException e) {
+      // rotated in the meantime; rotation syncs the file before closing it
+    } catch (IOException e) {
+      log.error("WAL group commit failed", e);
+      failure = e;
+    }
+    completePendingSyncs(batch, failure);
+  }
+
+  private void completePendingSyncs(final List<CompletableFuture<Boolean>> batch, final IOException failure) {
+    // writers continue on the WAL executor rather than on the group commit thread
+    batch.forEach(synced -> continuations.execute(() -> {
+      if (failure == null) {
+        synced.complete(true);
+      } else {
+        synced.completeExceptionally(failure);
+      }
+    }));
+  }
+}
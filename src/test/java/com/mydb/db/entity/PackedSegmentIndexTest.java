@@ -0,0 +1,103 @@
+package com.mydb.db.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PackedSegmentIndexTest {
+
+  private static final Map<String, SegmentMetadata> ENTRIES = Map.of(
+      "probe-1", new SegmentMetadata(0, 10, 100),
+      "probe-2", new SegmentMetadata(10, 20, 100),
+      "probe-10", new SegmentMetadata(30, 5, 100),
+      "sonde-ä", new SegmentMetadata(35, 7, 100),
+      "sonde-€", new SegmentMetadata(42, 3, 100),
+      "zond-日本", new SegmentMetadata(45, 11, 100)
+  );
+
+  @Test
+  void findsEveryKey() {
+    var index = PackedSegmentIndex.of(ENTRIES);
+
+    assertThat(index).hasSize(ENTRIES.size());
+    ENTRIES.forEach((key, metadata) -> {
+      assertThat(index.get(key)).isEqualTo(metadata);
+      assertThat(index.get(key.getBytes(StandardCharsets.UTF_8))).isEqualTo(metadata);
+      assertThat(index.containsKey(key)).isTrue();
+    });
+  }
+
+  @Test
+  void missesAbsentKeys() {
+    var index = PackedSegmentIndex.of(ENTRIES);
+
+    for (var key : List.of("", "probe", "probe-0", "probe-11", "probe-3", "sonde-a", "sonde-ä2", "zzz")) {
+      assertThat(index.get(key)).as(key).isNull();
+      assertThat(index.get(key.getBytes(StandardCharsets.UTF_8))).as(key).isNull();
+      assertThat(index.containsKey(key)).as(key).isFalse();
+    }
+    assertThat(index.get((Object) 42)).isNull();
+  }
+
+  @Test
+  void ordersMultiByteKeysByTheirUtf8Bytes() {
+    var index = PackedSegmentIndex.of(ENTRIES);
+
+    // the same order the merge compares keys in
+    assertThat(new ArrayList<>(index.keySet()))
+        .containsExactly("probe-1", "probe-10", "probe-2", "sonde-ä", "sonde-€", "zond-日本");
+    assertThat(index.keyAt(5)).isEqualTo("zond-日本");
+    assertThat(index.keyBytesAt(5)).isEqualTo("zond-日本".getBytes(StandardCharsets.UTF_8));
+    assertThat(index.ceilingSlot("sonde-b".getBytes(StandardCharsets.UTF_8))).isEqualTo(3);
+    assertThat(index.ceilingSlot("zzz".getBytes(StandardCharsets.UTF_8))).isEqualTo(index.size());
+  }
+
+  @Test
+  void handlesAnEmptyIndex() {
+    var index = PackedSegmentIndex.of(Map.of());
+
+    assertThat(index).isEmpty();
+    assertThat(index.get("probe-1")).isNull();
+    assertThat(index.get(new byte[0])).isNull();
+  }
+
+  @Test
+  void keepsTheWriteTimeOfEveryKey() {
+    var entries = new HashMap<String, SegmentMetadata>();
+    entries.put("a", new SegmentMetadata(0, 1, 300));
+    entries.put("b", new SegmentMetadata(1, 1, 100));
+    entries.put("c", new SegmentMetadata(2, 1, 0));
+    entries.put("d", new SegmentMetadata(3, 1, 300));
+
+    var index = PackedSegmentIndex.of(entries, 200);
+
+    assertThat(index.get("a").getWriteTime()).isEqualTo(300);
+    assertThat(index.get("b").getWriteTime()).isEqualTo(100);
+    assertThat(index.get("c").getWriteTime()).isEqualTo(200);
+    assertThat(index.get("d").getWriteTime()).isEqualTo(300);
+  }
+
+  @Test
+  void buildsFromKeysCopiedOutOfOtherIndices() {
+    var first = PackedSegmentIndex.of(Map.of("a", new SegmentMetadata(0, 1), "c", new SegmentMetadata(1, 1)));
+    var second = PackedSegmentIndex.of(Map.of("b-ü", new SegmentMetadata(0, 1)));
+
+    var merged = new PackedSegmentIndex.Builder()
+        .add(first, 0, 0, 4, 10)
+        .add(second, 0, 4, 5, 30)
+        .add(first, 1, 9, 6, 20)
+        .build();
+
+    assertThat(new ArrayList<>(merged.keySet())).containsExactly("a", "b-ü", "c");
+    assertThat(merged.get("b-ü")).isEqualTo(new SegmentMetadata(4, 5, 30));
+    assertThat(merged.get("c".getBytes(StandardCharsets.UTF_8))).isEqualTo(new SegmentMetadata(9, 6, 20));
+    assertThat(merged.compareKeys(0, first, 0)).isZero();
+    assertThat(merged.compareKeys(1, first, 1)).isNegative();
+  }
+}
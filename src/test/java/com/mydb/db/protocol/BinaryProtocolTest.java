@@ -0,0 +1,116 @@
+package com.mydb.db.protocol;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BinaryProtocolTest {
+
+  @Test
+  void prefixesAFrameWithTheLengthOfItsBody() {
+    final var body = Buffer.buffer().appendByte(BinaryProtocol.GET).appendString("body");
+
+    final var frame = BinaryProtocol.frame(body);
+
+    assertThat(frame.length()).isEqualTo(Integer.BYTES + body.length());
+    assertThat(frame.getInt(0)).isEqualTo(body.length());
+    assertThat(frame.getBuffer(Integer.BYTES, frame.length())).isEqualTo(body);
+  }
+
+  @Test
+  void readsBackAPut() {
+    final var payload = Buffer.buffer("{\"temperature\":21.5}");
+    final var body = Buffer.buffer().appendByte(BinaryProtocol.PUT);
+    BinaryProtocol.appendString(body, "probe-ü-日本");
+    BinaryProtocol.appendString(body, "");
+    BinaryProtocol.appendPayload(body, payload);
+
+    final var frame = BinaryProtocol.frame(body);
+    final var read = frame.getBuffer(Integer.BYTES, Integer.BYTES + frame.getInt(0));
+    final var reader = new BinaryProtocol.Reader(read, 1);
+
+    assertThat(read.getByte(0)).isEqualTo(BinaryProtocol.PUT);
+    assertThat(reader.readString()).isEqualTo("probe-ü-日本");
+    assertThat(reader.readString()).isEmpty();
+    assertThat(reader.readPayload()).isEqualTo(payload);
+    assertThat(reader.readRemaining().length()).isZero();
+  }
+
+  @Test
+  void readsBackABatchPut() {
+    final var body = Buffer.buffer().appendByte(BinaryProtocol.BATCH_PUT).appendInt(3);
+    for (var i = 0; i < 3; i++) {
+      BinaryProtocol.appendString(body, "probe-" + i);
+      BinaryProtocol.appendString(body, "event-" + i);
+      BinaryProtocol.appendPayload(body, Buffer.buffer(new byte[i]));
+    }
+
+    final var reader = new BinaryProtocol.Reader(body, 1);
+    final var count = reader.readCount(Short.BYTES + Short.BYTES + Integer.BYTES);
+
+    assertThat(count).isEqualTo(3);
+    for (var i = 0; i < count; i++) {
+      assertThat(reader.readString()).isEqualTo("probe-" + i);
+      assertThat(reader.readString()).isEqualTo("event-" + i);
+      assertThat(reader.readPayload().length()).isEqualTo(i);
+    }
+  }
+
+  @Test
+  void readsStringsUpToTheUnsignedShortLength() {
+    final var value = "p".repeat(40000);
+    final var body = BinaryProtocol.appendString(Buffer.buffer(), value);
+
+    assertThat(new BinaryProtocol.Reader(body, 0).readString()).isEqualTo(value);
+  }
+
+  @Test
+  void rejectsNegativeCounts() {
+    final var body = Buffer.buffer().appendByte(BinaryProtocol.MULTI_GET).appendInt(-1);
+
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(body, 1).readCount(Short.BYTES))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("-1");
+  }
+
+  @Test
+  void rejectsCountsTheBodyCannotHold() {
+    // two probeIds announced, room for one
+    final var body = Buffer.buffer().appendByte(BinaryProtocol.MULTI_GET).appendInt(2);
+    BinaryProtocol.appendString(body, "");
+
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(body, 1).readCount(Short.BYTES))
+        .isInstanceOf(IllegalArgumentException.class);
+
+    final var huge = Buffer.buffer().appendByte(BinaryProtocol.BATCH_PUT).appendInt(Integer.MAX_VALUE);
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(huge, 1).readCount(Short.BYTES + Short.BYTES + Integer.BYTES))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void failsOnFieldsRunningPastTheBody() {
+    final var truncatedString = Buffer.buffer().appendByte(BinaryProtocol.GET)
+        .appendShort((short) 10).appendString("abc");
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(truncatedString, 1).readString())
+        .isInstanceOf(IndexOutOfBoundsException.class);
+
+    final var truncatedPayload = Buffer.buffer().appendInt(100).appendString("abc");
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(truncatedPayload, 0).readPayload())
+        .isInstanceOf(IndexOutOfBoundsException.class);
+
+    final var missingCount = Buffer.buffer().appendByte(BinaryProtocol.MULTI_GET).appendShort((short) 0);
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(missingCount, 1).readCount(Short.BYTES))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  void failsOnNegativePayloadLengths() {
+    // answered as a malformed request, like every runtime exception of a reader
+    final var body = Buffer.buffer().appendInt(-5).appendString("abc");
+
+    assertThatThrownBy(() -> new BinaryProtocol.Reader(body, 0).readPayload())
+        .isInstanceOf(RuntimeException.class);
+  }
+}
@@ -0,0 +1,106 @@
+package com.mydb.db.services;
+
+import com.mydb.db.DeduplicationConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeduplicationServiceTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final DeduplicationService service =
+      new DeduplicationService(new DeduplicationConfig(true, 600, 1000), registry);
+  private final AtomicInteger inserts = new AtomicInteger();
+
+  @Test
+  void dropsARepeatedEvent() {
+    assertThat(service.ingest("probe-1", "event-1", insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-1", "event-1", insert())).isCompletedWithValue(false);
+
+    assertThat(inserts).hasValue(1);
+    assertThat(registry.counter("mydb.ingest.duplicates.dropped").count()).isEqualTo(1);
+  }
+
+  @Test
+  void keepsTheSameEventIdOfAnotherProbe() {
+    assertThat(service.ingest("probe-1", "event-1", insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-2", "event-1", insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-1", "event-2", insert())).isCompletedWithValue(true);
+
+    assertThat(inserts).hasValue(3);
+  }
+
+  @Test
+  void letsADuplicateWaitForTheInsertInFlight() {
+    final var pending = new CompletableFuture<Boolean>();
+    final var first = service.ingest("probe-1", "event-1", () -> pending);
+    final var duplicate = service.ingest("probe-1", "event-1", insert());
+
+    assertThat(first).isNotDone();
+    assertThat(duplicate).isNotDone();
+    pending.complete(true);
+
+    assertThat(first).isCompletedWithValue(true);
+    assertThat(duplicate).isCompletedWithValue(false);
+    assertThat(inserts).hasValue(0);
+  }
+
+  @Test
+  void insertsADuplicateWhoseInsertInFlightFailed() {
+    final var pending = new CompletableFuture<Boolean>();
+    final var first = service.ingest("probe-1", "event-1", () -> pending);
+    final var duplicate = service.ingest("probe-1", "event-1", insert());
+
+    pending.completeExceptionally(new IOException("WAL append failed"));
+
+    assertThat(first).isCompletedExceptionally();
+    assertThat(duplicate).isCompletedWithValue(true);
+    assertThat(inserts).hasValue(1);
+    // the duplicate's insert is remembered in turn
+    assertThat(service.ingest("probe-1", "event-1", insert())).isCompletedWithValue(false);
+  }
+
+  @Test
+  void forgetsAnEventWhoseInsertThrew() {
+    assertThatThrownBy(() -> service.ingest("probe-1", "event-1", () -> {
+      throw new IllegalStateException("hard limit");
+    })).isInstanceOf(IllegalStateException.class);
+
+    assertThat(service.ingest("probe-1", "event-1", insert())).isCompletedWithValue(true);
+    assertThat(inserts).hasValue(1);
+  }
+
+  @Test
+  void neverDropsEventsWithoutAnEventId() {
+    assertThat(service.ingest("probe-1", "", insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-1", "", insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-1", null, insert())).isCompletedWithValue(true);
+    assertThat(service.ingest("probe-1", null, insert())).isCompletedWithValue(true);
+
+    assertThat(inserts).hasValue(4);
+  }
+
+  @Test
+  void insertsEverythingWhenDisabled() {
+    final var disabled = new DeduplicationService(new DeduplicationConfig(false, 600, 1000), registry);
+
+    assertThat(disabled.ingest("probe-1", "event-1", insert())).isCompletedWithValue(true);
+    assertThat(disabled.ingest("probe-1", "event-1", insert())).isCompletedWithValue(true);
+
+    assertThat(inserts).hasValue(2);
+  }
+
+  private Supplier<CompletableFuture<Boolean>> insert() {
+    return () -> {
+      inserts.incrementAndGet();
+      return CompletableFuture.completedFuture(true);
+    };
+  }
+}
@@ -0,0 +1,149 @@
+package com.mydb.db.services;
+
+import com.mydb.db.DurabilityConfig;
+import com.mydb.db.DurabilityPolicy;
+import com.mydb.db.SegmentConfig;
+import com.mydb.db.entity.PackedSegmentIndex;
+import com.mydb.db.entity.Segment;
+import com.mydb.db.entity.SegmentIndex;
+import com.mydb.db.entity.SegmentMetadata;
+import com.mydb.db.entity.merge.CompactionThrottle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MergeServiceTest {
+
+  @TempDir
+  Path directory;
+
+  private FileIOService fileIOService;
+  private SegmentService segmentService;
+
+  @BeforeEach
+  void setUp() {
+    fileIOService = new FileIOService(new DurabilityConfig(DurabilityPolicy.NEVER, 0));
+    // hands out segments in the temporary directory without persisting the segment count
+    segmentService = new SegmentService(new SegmentConfig(directory.toString(), 0), fileIOService) {
+      private int count = 0;
+
+      @Override
+      public synchronized Segment getNewSegment() {
+        final var name = "segment-" + ++count;
+        return new Segment(name, getPathForSegment(name), null, null);
+      }
+    };
+  }
+
+  @Test
+  void keepsTheNewestValueOfEveryKey() throws Exception {
+    final var newest = segment(300, Map.of("a", "a3", "c", "c3"));
+    final var middle = segment(200, Map.of("a", "a2", "b", "b2"));
+    final var oldest = segment(100, Map.of("a", "a1", "b", "b1", "d", "d1"));
+
+    final var outputs = mergeService(1).merge(List.of(newest, middle, oldest), 0);
+
+    assertThat(outputs).hasSize(1);
+    assertThat(read(outputs.get(0))).containsExactly(
+        Map.entry("a", "a3"), Map.entry("b", "b2"), Map.entry("c", "c3"), Map.entry("d", "d1"));
+    assertThat(outputs.get(0).getSegmentIndex().get("b").getWriteTime()).isEqualTo(200);
+    assertThat(outputs.get(0).getSegmentIndex().get("d").getWriteTime()).isEqualTo(100);
+    assertThat(outputs.get(0).getMaxWriteTime()).isEqualTo(300);
+  }
+
+  @Test
+  void dropsKeysWhoseNewestValueExpired() throws Exception {
+    final var newer = segment(200, Map.of("a", "a2"));
+    final var older = segment(100, Map.of("a", "a1", "b", "b1"));
+
+    final var outputs = mergeService(1).merge(List.of(newer, older), 150);
+
+    assertThat(outputs).hasSize(1);
+    assertThat(read(outputs.get(0))).containsExactly(Map.entry("a", "a2"));
+    assertThat(mergeService(1).merge(List.of(newer, older), 250)).isEmpty();
+    assertThat(directory.toFile().list()).noneMatch(name -> name.endsWith(".tmp"));
+  }
+
+  @Test
+  void splitsTheKeySpaceAtFenceKeysOfTheLargestInput() throws Exception {
+    final var older = new HashMap<String, String>();
+    for (var i = 0; i < 30000; i++) {
+      older.put(key(i), "old-" + i);
+    }
+    final var newer = new HashMap<String, String>();
+    for (var i = 0; i < 30000; i += 1000) {
+      newer.put(key(i), "new-" + i);
+    }
+    // outside the key range of the larger input
+    newer.put("a-first", "new-first");
+    newer.put("z-last", "new-last");
+
+    final var outputs = mergeService(3).merge(List.of(segment(200, newer), segment(100, older)), 0);
+
+    // three ranges split at the 10000th and 20000th key of the larger input
+    assertThat(outputs).hasSize(3);
+    final var ranges = new ArrayList<Map<String, String>>();
+    for (var output : outputs) {
+      ranges.add(read(output));
+    }
+    assertThat(ranges.get(0)).containsKey("a-first").containsKey(key(9999)).doesNotContainKey(key(10000));
+    assertThat(ranges.get(1).keySet().iterator().next()).isEqualTo(key(10000));
+    assertThat(ranges.get(1)).containsKey(key(19999)).doesNotContainKey(key(20000));
+    assertThat(ranges.get(2).keySet().iterator().next()).isEqualTo(key(20000));
+    assertThat(ranges.get(2)).containsKey("z-last");
+
+    final var merged = new LinkedHashMap<String, String>();
+    ranges.forEach(merged::putAll);
+    assertThat(merged).hasSize(30002);
+    assertThat(new ArrayList<>(merged.keySet())).isSorted();
+    for (var i = 0; i < 30000; i++) {
+      assertThat(merged.get(key(i))).isEqualTo(i % 1000 == 0 ? "new-" + i : "old-" + i);
+    }
+    assertThat(merged.get("a-first")).isEqualTo("new-first");
+    assertThat(merged.get("z-last")).isEqualTo("new-last");
+  }
+
+  private MergeService mergeService(final int parallelism) {
+    return new MergeService(fileIOService, segmentService, new CompactionThrottle(0), parallelism);
+  }
+
+  private static String key(final int i) {
+    return String.format("probe-%05d", i);
+  }
+
+  private SegmentIndex segment(final long writeTime, final Map<String, String> values) throws IOException {
+    final var segment = segmentService.getNewSegment();
+    final var index = new HashMap<String, SegmentMetadata>();
+    final var bytes = new ByteArrayOutputStream();
+    for (var entry : new TreeMap<>(values).entrySet()) {
+      final var value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+      index.put(entry.getKey(), new SegmentMetadata(bytes.size(), value.length, writeTime));
+      bytes.writeBytes(value);
+    }
+    fileIOService.writeAtomically(new File(segment.getSegmentPath()), bytes.toByteArray());
+    return new SegmentIndex(segment, PackedSegmentIndex.of(index), writeTime);
+  }
+
+  private Map<String, String> read(final SegmentIndex output) throws IOException {
+    final var values = new LinkedHashMap<String, String>();
+    for (var entry : output.getSegmentIndex().entrySet()) {
+      final var bytes = fileIOService.readBytes(output.getSegment().getSegmentPath(), entry.getValue());
+      values.put(entry.getKey(), new String(bytes, StandardCharsets.UTF_8));
+    }
+    return values;
+  }
+}
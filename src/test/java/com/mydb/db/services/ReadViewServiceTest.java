@@ -0,0 +1,134 @@
+package com.mydb.db.services;
+
+import com.mydb.db.DurabilityConfig;
+import com.mydb.db.DurabilityPolicy;
+import com.mydb.db.SegmentConfig;
+import com.mydb.db.entity.PackedSegmentIndex;
+import com.mydb.db.entity.Segment;
+import com.mydb.db.entity.SegmentIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReadViewServiceTest {
+
+  @TempDir
+  Path directory;
+
+  private FileIOService fileIOService;
+  private SegmentService segmentService;
+
+  @BeforeEach
+  void setUp() {
+    fileIOService = new FileIOService(new DurabilityConfig(DurabilityPolicy.NEVER, 0));
+    segmentService = new SegmentService(new SegmentConfig(directory.toString(), 0), fileIOService);
+  }
+
+  @Test
+  void keepsAReplacedViewOpenUntilItsLastReaderReleasesIt() throws IOException {
+    final var first = segment("segment-1");
+    final var service = new ReadViewService(fileIOService, segmentService, null, List.of(first));
+
+    final var read = service.acquire();
+    final var second = segment("segment-2");
+    final var published = service.publish(segments -> List.of(second, first));
+
+    assertThat(published.getVersion()).isEqualTo(1);
+    assertThat(service.getSegments()).containsExactly(second, first);
+    // the reader still sees the list it acquired
+    assertThat(read.getSegments()).containsExactly(first);
+    assertThat(read.tryAcquire()).isTrue();
+    read.release();
+
+    read.release();
+    assertThat(read.tryAcquire()).isFalse();
+    assertThat(service.acquire()).isSameAs(published);
+  }
+
+  @Test
+  void deletesARetiredSegmentOnlyOnceTheNextBackupIsWritten() throws Exception {
+    final var merged = segment("segment-1");
+    final var service = new ReadViewService(fileIOService, segmentService, null, List.of(merged));
+    final var output = segment("segment-2");
+
+    service.publish(segments -> List.of(output));
+    service.retire(List.of(merged));
+
+    // no view refers to it any more, but the latest backup still lists it
+    assertThat(file(merged)).exists();
+
+    service.persistIndices();
+
+    awaitDeleted(file(merged));
+    assertThat(file(output)).exists();
+    assertThat(SegmentService.listBackups(directory.toString())).hasSize(1);
+  }
+
+  @Test
+  void deletesARetiredSegmentOnlyOnceTheLastViewContainingItIsReleased() throws Exception {
+    final var merged = segment("segment-1");
+    final var service = new ReadViewService(fileIOService, segmentService, null, List.of(merged));
+    final var output = segment("segment-2");
+
+    final var read = service.acquire();
+    service.publish(segments -> List.of(output));
+    service.retire(List.of(merged));
+    service.persistIndices();
+
+    assertThat(file(merged)).exists();
+    final var newer = service.acquire();
+    newer.release();
+    assertThat(file(merged)).exists();
+
+    read.release();
+
+    awaitDeleted(file(merged));
+    assertThat(file(output)).exists();
+  }
+
+  @Test
+  void keepsBackingUpSegmentsWhoseBackupFailed() throws Exception {
+    final var merged = segment("segment-1");
+    final var service = new ReadViewService(fileIOService, segmentService, null, List.of(merged));
+    service.publish(segments -> List.of(segment("segment-2")));
+    service.retire(List.of(merged));
+
+    // a file where the backup directory belongs fails the backup
+    final var backups = new File(directory.toFile(), "indices");
+    assertThat(backups.createNewFile()).isTrue();
+    assertThatThrownBy(service::persistIndices).isInstanceOf(IOException.class);
+    assertThat(file(merged)).exists();
+
+    assertThat(backups.delete()).isTrue();
+    service.persistIndices();
+
+    awaitDeleted(file(merged));
+  }
+
+  private SegmentIndex segment(final String name) throws IOException {
+    final var path = segmentService.getPathForSegment(name);
+    fileIOService.writeAtomically(new File(path), new byte[]{1, 2, 3});
+    return new SegmentIndex(new Segment(name, path, null, null), PackedSegmentIndex.of(Map.of()), 0);
+  }
+
+  private static File file(final SegmentIndex segment) {
+    return new File(segment.getSegment().getSegmentPath());
+  }
+
+  // segments are deleted on a thread of their own
+  private static void awaitDeleted(final File file) throws InterruptedException {
+    for (var i = 0; i < 500 && file.exists(); i++) {
+      Thread.sleep(10);
+    }
+    assertThat(file).doesNotExist();
+  }
+}